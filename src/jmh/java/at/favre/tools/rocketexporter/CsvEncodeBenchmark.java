@@ -0,0 +1,42 @@
+package at.favre.tools.rocketexporter;
+
+import at.favre.tools.rocketexporter.converter.ExportFormat;
+import at.favre.tools.rocketexporter.converter.SlackCsvFormat;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Encoding of messages with {@link SlackCsvFormat}, written to a stream discarding all bytes.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 5)
+@Fork(1)
+public class CsvEncodeBenchmark {
+    @Param({"10000", "100000", "1000000", "10000000"})
+    public long messageCount;
+
+    private SyntheticMessages messages;
+    private ExportFormat format;
+
+    @Setup
+    public void setup() {
+        messages = new SyntheticMessages(1);
+        format = new SlackCsvFormat();
+    }
+
+    @Benchmark
+    public void encode(MessageCounter counter) throws IOException {
+        try (ExportFormat.Sink sink = format.open(OutputStream.nullOutputStream())) {
+            for (long i = messageCount - 1; i >= 0; i--) {
+                sink.write(messages.message(i));
+            }
+        }
+        counter.messages += messageCount;
+    }
+}
@@ -0,0 +1,59 @@
+package at.favre.tools.rocketexporter;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Deduplication, spooling and in-order replay of history pages, i.e. everything between decoding and encoding.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 5)
+@Fork(1)
+public class DedupeAndSpoolBenchmark {
+    private static final int PAGE_SIZE = 100;
+
+    @Param({"10000", "100000", "1000000", "10000000"})
+    public long messageCount;
+
+    private SyntheticMessages messages;
+    private File directory;
+
+    @Setup
+    public void setup() throws IOException {
+        messages = new SyntheticMessages(1);
+        directory = Files.createTempDirectory("spool-benchmark").toFile();
+    }
+
+    @TearDown
+    public void tearDown() {
+        directory.delete();
+    }
+
+    @Benchmark
+    public long dedupeAndReplay(Blackhole blackhole, MessageCounter counter) throws IOException {
+        try (MessageSpool spool = MessageSpool.create(directory, SyntheticMessages.CHANNEL)) {
+            // remembers as many pages as with the default prefetch depth
+            PageDeduplicator deduplicator = new PageDeduplicator(3);
+            for (long i = 0; i < messageCount; i++) {
+                if (deduplicator.accept(messages.id(i))) {
+                    spool.append(messages.message(i));
+                }
+                if (i % PAGE_SIZE == PAGE_SIZE - 1) {
+                    deduplicator.nextPage();
+                    spool.endPage();
+                }
+            }
+            spool.replay(blackhole::consume);
+            counter.messages += spool.size();
+            return spool.size();
+        }
+    }
+}
@@ -0,0 +1,35 @@
+package at.favre.tools.rocketexporter;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decoding of history responses into {@link at.favre.tools.rocketexporter.model.Message}, including timestamp parsing.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 5)
+@Fork(1)
+public class HistoryDecodeBenchmark {
+    @Param({"10000", "100000", "1000000", "10000000"})
+    public long messageCount;
+
+    private SyntheticMessages messages;
+
+    @Setup
+    public void setup() {
+        messages = new SyntheticMessages(1);
+    }
+
+    @Benchmark
+    public int decode(Blackhole blackhole, MessageCounter counter) throws IOException {
+        int count = HistoryDecoder.decode(messages.historyJson(messageCount), SyntheticMessages.CHANNEL, (id, message) -> blackhole.consume(message));
+        counter.messages += count;
+        return count;
+    }
+}
@@ -0,0 +1,21 @@
+package at.favre.tools.rocketexporter;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Reports the processed messages per second next to the invocations per second.
+ */
+@State(Scope.Thread)
+@AuxCounters(AuxCounters.Type.OPERATIONS)
+public class MessageCounter {
+    public long messages;
+
+    @Setup(Level.Iteration)
+    public void reset() {
+        messages = 0;
+    }
+}
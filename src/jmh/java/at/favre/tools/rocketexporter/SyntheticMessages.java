@@ -0,0 +1,116 @@
+package at.favre.tools.rocketexporter;
+
+import at.favre.tools.rocketexporter.model.Message;
+
+import java.io.Reader;
+import java.time.Instant;
+import java.util.Random;
+
+/**
+ * Generates synthetic chat data for the benchmarks. Large sets are generated on the fly from a small pool,
+ * so even 10M messages do not need to fit into memory.
+ */
+final class SyntheticMessages {
+    static final String CHANNEL = "benchmark-channel";
+    static final long NEWEST_EPOCH_MILLIS = 1_569_000_000_000L;
+
+    private static final int POOL_SIZE = 1024;
+    private static final String[] WORDS = {"the", "deploy", "failed", "again", "\"quoted\"", "see", "https://example.com/a?b=c",
+            "lgtm", "thanks,", "\n", "rocket", "merge", "\\\\", "öäü", ":thumbsup:"};
+
+    private final String[] texts = new String[POOL_SIZE];
+    private final String[] users = new String[POOL_SIZE];
+    private final String[] json = new String[POOL_SIZE];
+    private final String[] ids = new String[POOL_SIZE];
+
+    SyntheticMessages(long seed) {
+        Random random = new Random(seed);
+        for (int i = 0; i < POOL_SIZE; i++) {
+            StringBuilder sb = new StringBuilder();
+            int words = 1 + random.nextInt(random.nextInt(10) == 0 ? 200 : 20);
+            for (int j = 0; j < words; j++) {
+                sb.append(WORDS[random.nextInt(WORDS.length)]).append(' ');
+            }
+            texts[i] = sb.toString();
+            users[i] = "User " + random.nextInt(50);
+            ids[i] = Long.toString(random.nextLong() & Long.MAX_VALUE, 36);
+            json[i] = "{\"_id\":\"" + ids[i] + "\",\"rid\":\"room\",\"msg\":" + quote(texts[i]) +
+                    ",\"ts\":\"" + Instant.ofEpochMilli(timestamp(i)) + "\"" +
+                    ",\"u\":{\"_id\":\"u" + i + "\",\"username\":\"user\",\"name\":" + quote(users[i]) + "}" +
+                    ",\"mentions\":[],\"channels\":[],\"_updatedAt\":\"2019-07-22T10:00:16.523Z\"}";
+        }
+    }
+
+    /**
+     * @param index of the message, 0 is the most recent
+     * @return message with descending timestamps like returned by the history endpoints
+     */
+    Message message(long index) {
+        int slot = (int) (index & (POOL_SIZE - 1));
+        return new Message(texts[slot], users[slot], CHANNEL, Instant.ofEpochMilli(timestamp(index)));
+    }
+
+    /**
+     * @param index of the message, 0 is the most recent
+     * @return message id, ids repeat after 1024 messages
+     */
+    String id(long index) {
+        return ids[(int) (index & (POOL_SIZE - 1))];
+    }
+
+    static long timestamp(long index) {
+        return NEWEST_EPOCH_MILLIS - index * 1337;
+    }
+
+    /**
+     * @param count of messages in the response
+     * @return reader producing a history response body, message ids and timestamps repeat after 1024 messages
+     */
+    Reader historyJson(long count) {
+        return new HistoryReader(count);
+    }
+
+    private final class HistoryReader extends Reader {
+        private final long count;
+        private long next;
+        private String chunk = "{\"messages\":[";
+        private int chunkPos;
+
+        private HistoryReader(long count) {
+            this.count = count;
+        }
+
+        @Override
+        public int read(char[] cbuf, int off, int len) {
+            if (chunkPos == chunk.length()) {
+                if (next > count) {
+                    return -1;
+                }
+                chunk = nextChunk();
+                chunkPos = 0;
+            }
+            int n = Math.min(len, chunk.length() - chunkPos);
+            chunk.getChars(chunkPos, chunkPos + n, cbuf, off);
+            chunkPos += n;
+            return n;
+        }
+
+        private String nextChunk() {
+            if (next == count) {
+                next++;
+                return "],\"success\":true}";
+            }
+            // the pre-rendered pool is repeated, so generating the body costs next to nothing
+            String message = json[(int) (next & (POOL_SIZE - 1))];
+            return next++ > 0 ? "," + message : message;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    private static String quote(String s) {
+        return "\"" + s.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n") + "\"";
+    }
+}
@@ -0,0 +1,48 @@
+package at.favre.tools.rocketexporter;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.time.Instant;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares {@link Timestamps#parseEpochMillis(String)} with the previously used {@link Instant#parse(CharSequence)}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TimestampParseBenchmark {
+    private static final int COUNT = 1024;
+
+    private String[] timestamps;
+    private int index;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(1);
+        timestamps = new String[COUNT];
+        for (int i = 0; i < COUNT; i++) {
+            // non-zero millis, otherwise Instant#toString() omits them and the Rocket Chat format is not matched
+            long epochMillis = (1_500_000_000L + random.nextInt(200_000_000)) * 1000L + 1 + random.nextInt(999);
+            timestamps[i] = Instant.ofEpochMilli(epochMillis).toString();
+        }
+    }
+
+    @Benchmark
+    public long instantParse() {
+        return Instant.parse(next()).toEpochMilli();
+    }
+
+    @Benchmark
+    public long fixedFormatParse() {
+        return Timestamps.parseEpochMillis(next());
+    }
+
+    private String next() {
+        return timestamps[index++ & (COUNT - 1)];
+    }
+}
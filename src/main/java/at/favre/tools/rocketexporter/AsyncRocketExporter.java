@@ -0,0 +1,60 @@
+package at.favre.tools.rocketexporter;
+
+import at.favre.tools.rocketexporter.dto.RocketChatChannel;
+import at.favre.tools.rocketexporter.dto.RocketChatDm;
+import at.favre.tools.rocketexporter.dto.RocketChatGroups;
+import at.favre.tools.rocketexporter.model.Message;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Flow;
+
+/**
+ * Non-blocking counterpart of {@link RocketExporter}. All requests are executed by the dispatcher of the
+ * underlying HTTP client, so no caller thread is blocked while waiting for the server.
+ * <p>
+ * Get an instance with {@link RocketExporter#async()}, it shares the session of the blocking exporter, so login first.
+ * <p>
+ * Listings retry transient failures like the blocking exporter (see {@link Config.Retry}), but the delay is scheduled
+ * on a timer instead of blocking a dispatcher thread. There is no retry budget or circuit breaker for async calls and
+ * message streams are not retried, a failed page fails the publisher.
+ */
+public interface AsyncRocketExporter {
+    /**
+     * Get all accessible groups.
+     *
+     * @return future of all groups
+     */
+    CompletableFuture<List<RocketChatGroups.Group>> listGroups();
+
+    /**
+     * Get all accessible channels.
+     *
+     * @return future of all channels
+     */
+    CompletableFuture<List<RocketChatChannel.Channel>> listChannels();
+
+    /**
+     * Get all direct message conversations.
+     *
+     * @return future of all direct message conversations
+     */
+    CompletableFuture<List<RocketChatDm.DirectMessage>> listDirectMessageChannels();
+
+    /**
+     * Stream messages of a conversation. Pages are only requested when the subscriber signals demand and
+     * messages are emitted in the order of the server, i.e. the most recent message first. Every subscription
+     * starts a new independent stream.
+     *
+     * @param type            of the conversation
+     * @param roomName        name used as channel of the messages
+     * @param roomId          used to identify the room within the REST Api
+     * @param offset          of messages to export (0 means "from the most recent")
+     * @param maxMessageCount how many messages to export
+     * @param oldest          if not null, only messages newer than this are emitted
+     * @return cold publisher of the messages, fails with {@link TooManyRequestException} if the server responds with 429
+     */
+    Flow.Publisher<Message> messages(RocketExporter.ConversationType type, String roomName, String roomId,
+                                     int offset, int maxMessageCount, Instant oldest);
+}
@@ -0,0 +1,249 @@
+package at.favre.tools.rocketexporter;
+
+import at.favre.tools.rocketexporter.model.ExportResult;
+import lombok.Data;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.LongStream;
+
+/**
+ * Exports multiple conversations concurrently with a bounded pool of workers.
+ * <p>
+ * All workers share the same {@link RocketExporter}, i.e. the same authenticated session and HTTP connection pool.
+ * Conversations are started longest job first as estimated by a {@link WorkEstimator}, so a huge room does not
+ * start last and run alone at the end while all other workers are idle.
+ */
+public final class BatchExporter {
+    private static final long TOO_MANY_REQUESTS_BACKOFF_MS = 5000;
+
+    private final RocketExporter exporter;
+    private final int concurrency;
+    private final WorkEstimator estimator;
+    private final int maxRetriesOnTooManyRequests;
+    private final Listener listener;
+
+    /**
+     * Create new instance
+     *
+     * @param exporter    authenticated exporter, shared by all workers
+     * @param concurrency how many conversations are exported at the same time
+     * @param listener    called every time a conversation finished (from the worker thread)
+     */
+    public BatchExporter(RocketExporter exporter, int concurrency, Listener listener) {
+        this(exporter, concurrency, WorkEstimator.inMemory(), listener);
+    }
+
+    /**
+     * Create new instance
+     *
+     * @param exporter    authenticated exporter, shared by all workers
+     * @param concurrency how many conversations are exported at the same time
+     * @param estimator   to order the conversations by, learns from every finished export
+     * @param listener    called every time a conversation finished (from the worker thread)
+     */
+    public BatchExporter(RocketExporter exporter, int concurrency, WorkEstimator estimator, Listener listener) {
+        this(exporter, concurrency, estimator, Config.Retry.builder().build(), listener);
+    }
+
+    /**
+     * Create new instance
+     *
+     * @param exporter    authenticated exporter, shared by all workers
+     * @param concurrency how many conversations are exported at the same time
+     * @param estimator   to order the conversations by, learns from every finished export
+     * @param retry       how often a conversation is restarted after the server responded with 429
+     * @param listener    called every time a conversation finished (from the worker thread)
+     */
+    public BatchExporter(RocketExporter exporter, int concurrency, WorkEstimator estimator, Config.Retry retry, Listener listener) {
+        if (concurrency < 1) {
+            throw new IllegalArgumentException("concurrency must be at least 1");
+        }
+        this.exporter = exporter;
+        this.concurrency = concurrency;
+        this.estimator = estimator;
+        this.maxRetriesOnTooManyRequests = retry.getMaxRetries();
+        this.listener = listener;
+    }
+
+    /**
+     * Export all given conversations and block until all are finished. A failing conversation
+     * does not abort the others.
+     *
+     * @param requests to export
+     * @return one result for every request in the same order
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public List<Result> exportAll(List<ExportRequest> requests) throws InterruptedException {
+        long[] estimates = requests.stream().mapToLong(estimator::estimate).toArray();
+        // the workers take the tasks in submission order, i.e. always the largest one left
+        List<Integer> largestFirst = IntStream.range(0, requests.size()).boxed()
+                .sorted(Comparator.comparingLong((Integer i) -> estimates[i]).reversed())
+                .collect(Collectors.toList());
+        Tracker tracker = new Tracker(estimates);
+
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(concurrency, Math.max(1, requests.size())), new WorkerThreadFactory());
+        try {
+            List<Future<Result>> futures = new ArrayList<>(Collections.nCopies(requests.size(), null));
+            for (int i : largestFirst) {
+                ExportRequest request = requests.get(i);
+                int job = i;
+                futures.set(i, executor.submit(() -> export(request, job, tracker)));
+            }
+
+            List<Result> results = new ArrayList<>(requests.size());
+            for (Future<Result> future : futures) {
+                try {
+                    results.add(future.get());
+                } catch (ExecutionException e) {
+                    throw new IllegalStateException(e.getCause());
+                }
+            }
+            return results;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private Result export(ExportRequest request, int job, Tracker tracker) throws InterruptedException {
+        ExportRequest tracked = request.toBuilder()
+                .fetchListener(bytes -> {
+                    tracker.fetched(job, bytes);
+                    if (request.getFetchListener() != null) {
+                        request.getFetchListener().accept(bytes);
+                    }
+                })
+                .build();
+        ExportResult exportResult = null;
+        Exception error = null;
+        for (int retry = 0; ; retry++) {
+            tracker.restarted(job);
+            try {
+                exportResult = exporter.export(tracked);
+                break;
+            } catch (TooManyRequestException e) {
+                if (retry >= maxRetriesOnTooManyRequests) {
+                    error = e;
+                    break;
+                }
+                Thread.sleep(TOO_MANY_REQUESTS_BACKOFF_MS);
+            } catch (Exception e) {
+                error = e;
+                break;
+            }
+        }
+        if (exportResult != null) {
+            estimator.record(request.getRoomId(), exportResult.getMessageCount(), exportResult.getFetchedBytes());
+        }
+        Result result = new Result(request, exportResult, error, tracker.finished(job));
+        listener.onFinished(result);
+        return result;
+    }
+
+    /**
+     * Outcome of a single conversation export
+     */
+    @Data
+    public static final class Result {
+        private final ExportRequest request;
+        /**
+         * Set if successful
+         */
+        private final ExportResult exportResult;
+        /**
+         * Set if failed
+         */
+        private final Exception error;
+        /**
+         * State of the whole batch when this conversation finished
+         */
+        private final Progress progress;
+
+        public boolean isSuccessful() {
+            return error == null;
+        }
+    }
+
+    /**
+     * Snapshot of the progress of a batch
+     */
+    @Data
+    public static final class Progress {
+        private final int finished;
+        private final int total;
+        /**
+         * Extrapolated from the estimated work done so far, including the part fetched of unfinished conversations
+         */
+        private final Duration estimatedTimeRemaining;
+    }
+
+    /**
+     * Tracks the estimated work done to extrapolate the remaining time. Largest jobs run first and finish last, so
+     * counting only finished jobs would underestimate the remaining time for most of the batch: the bytes fetched by
+     * unfinished jobs count as well, up to their estimate.
+     */
+    private static final class Tracker {
+        private final long[] estimates;
+        private final long[] fetched;
+        private final boolean[] done;
+        private final long totalWork;
+        private final long startNanos = System.nanoTime();
+        private int finished;
+
+        Tracker(long[] estimates) {
+            this.estimates = estimates;
+            this.fetched = new long[estimates.length];
+            this.done = new boolean[estimates.length];
+            this.totalWork = LongStream.of(estimates).sum();
+        }
+
+        synchronized void fetched(int job, long bytes) {
+            fetched[job] += bytes;
+        }
+
+        /**
+         * A restarted job fetches everything again
+         */
+        synchronized void restarted(int job) {
+            fetched[job] = 0;
+        }
+
+        synchronized Progress finished(int job) {
+            finished++;
+            done[job] = true;
+            long work = 0;
+            for (int i = 0; i < estimates.length; i++) {
+                work += done[i] ? estimates[i] : Math.min(fetched[i], estimates[i]);
+            }
+            long elapsedNanos = System.nanoTime() - startNanos;
+            Duration remaining = finished == estimates.length ? Duration.ZERO
+                    : Duration.ofNanos((long) (elapsedNanos * ((double) (totalWork - work) / work)));
+            return new Progress(finished, estimates.length, remaining);
+        }
+    }
+
+    /**
+     * Callback for finished exports
+     */
+    public interface Listener {
+        void onFinished(Result result);
+    }
+
+    private static final class WorkerThreadFactory implements ThreadFactory {
+        private final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "export-worker-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
@@ -4,10 +4,165 @@ import lombok.Builder;
 import lombok.Data;
 
 import java.net.URI;
+import java.time.Duration;
 
 @Data
 @Builder
 public class Config {
     private final URI host;
     private final boolean httpDebugOutput;
+    /**
+     * How many messages are requested per history call. Rocket Chat caps this with its
+     * 'API_Upper_Count_Limit' setting which defaults to 100.
+     */
+    @Builder.Default
+    private final int pageSize = 100;
+    /**
+     * How many history pages may be fetched ahead while the previous ones are still being processed
+     */
+    @Builder.Default
+    private final int prefetchPages = 2;
+    /**
+     * How many time windows of a single room may be fetched concurrently, 1 fetches every room serially. Only
+     * used for requests exporting a whole room with known timeline, see {@link ExportRequest#getRoomCreated()}.
+     */
+    @Builder.Default
+    private final int maxWindowsPerRoom = 1;
+    /**
+     * Rooms are only split into windows holding at least this many messages
+     */
+    @Builder.Default
+    private final long minMessagesPerWindow = 50_000;
+    /**
+     * If true, room listings only request the fields this tool uses instead of the full room documents.
+     * Not every server version supports the 'fields' parameter.
+     */
+    private final boolean requestOnlyUsedRoomFields;
+    @Builder.Default
+    private final Transport transport = Transport.builder().build();
+    @Builder.Default
+    private final Retry retry = Retry.builder().build();
+    @Builder.Default
+    private final PageSizing pageSizing = PageSizing.builder().build();
+
+    /**
+     * Settings of the HTTP client. The defaults are the ones of OkHttp except for the timeouts.
+     */
+    @Data
+    @Builder
+    public static class Transport {
+        @Builder.Default
+        private final Duration connectTimeout = Duration.ofSeconds(10);
+        /**
+         * Maximum time between two packets of a response, large pages need more time
+         */
+        @Builder.Default
+        private final Duration readTimeout = Duration.ofSeconds(30);
+        @Builder.Default
+        private final Duration writeTimeout = Duration.ofSeconds(30);
+        /**
+         * How many idle connections are kept open in the pool
+         */
+        @Builder.Default
+        private final int maxIdleConnections = 5;
+        /**
+         * How long idle connections are kept open in the pool
+         */
+        @Builder.Default
+        private final Duration keepAlive = Duration.ofMinutes(5);
+        /**
+         * Limit of concurrent async requests
+         */
+        @Builder.Default
+        private final int maxRequests = 64;
+        /**
+         * Limit of concurrent async requests to the server
+         */
+        @Builder.Default
+        private final int maxRequestsPerHost = 5;
+        /**
+         * If false, only HTTP/1.1 is used
+         */
+        @Builder.Default
+        private final boolean http2 = true;
+
+        /**
+         * Preset for many concurrent exports of large rooms: enough pooled connections and async request slots
+         * for all workers, so no connection has to be re-established between pages, and read timeouts long enough
+         * for large pages of a busy server.
+         *
+         * @return builder with the preset, can be further customized
+         */
+        public static TransportBuilder highThroughput() {
+            return builder()
+                    .readTimeout(Duration.ofSeconds(120))
+                    .writeTimeout(Duration.ofSeconds(60))
+                    .maxIdleConnections(32)
+                    .keepAlive(Duration.ofMinutes(5))
+                    .maxRequests(128)
+                    .maxRequestsPerHost(32)
+                    .http2(true);
+        }
+    }
+
+    /**
+     * Retry policy for transient failures like 5xx responses, timeouts and connection resets
+     */
+    @Data
+    @Builder
+    public static class Retry {
+        /**
+         * How often a single request is retried at most, 0 disables retries
+         */
+        @Builder.Default
+        private final int maxRetries = 5;
+        /**
+         * Delay before the first retry, doubled for every further one
+         */
+        @Builder.Default
+        private final Duration baseDelay = Duration.ofMillis(500);
+        @Builder.Default
+        private final Duration maxDelay = Duration.ofSeconds(30);
+        /**
+         * How many retries all requests of a single room may use together during one export
+         */
+        @Builder.Default
+        private final int roomRetryBudget = 20;
+        /**
+         * After this many consecutive failures of any request, all requests are paused. 0 disables the circuit breaker.
+         */
+        @Builder.Default
+        private final int circuitBreakerThreshold = 10;
+        @Builder.Default
+        private final Duration circuitBreakerPause = Duration.ofSeconds(30);
+    }
+
+    /**
+     * Per room tuning of the history page size, starting with {@link #pageSize}
+     */
+    @Data
+    @Builder
+    public static class PageSizing {
+        /**
+         * If false, every page is requested with {@link #pageSize}
+         */
+        private final boolean adaptive;
+        @Builder.Default
+        private final int minPageSize = 10;
+        /**
+         * Rocket Chat silently caps larger counts at 'API_Upper_Count_Limit', which stops the growth
+         */
+        @Builder.Default
+        private final int maxPageSize = 1000;
+        /**
+         * How long fetching a page may take, should be well below the read timeout
+         */
+        @Builder.Default
+        private final Duration latencyTarget = Duration.ofSeconds(5);
+        /**
+         * How large a history response may be
+         */
+        @Builder.Default
+        private final long bytesTarget = 2 * 1024 * 1024;
+    }
 }
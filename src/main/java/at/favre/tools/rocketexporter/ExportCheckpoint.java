@@ -0,0 +1,252 @@
+package at.favre.tools.rocketexporter;
+
+import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.Objects;
+import java.util.Properties;
+
+/**
+ * Journal of a resumable export of a single room, kept as hidden files next to the output file.
+ * <p>
+ * While fetching, every page is committed to a persistent {@link MessageSpool} and the journal records the timestamp
+ * of the oldest committed message, the committed page count and the state of the {@link PageDeduplicator}. A resumed
+ * export continues with the messages before that timestamp: unlike an offset, this does not shift when new messages
+ * arrive in the meantime. Before the output is
+ * written, the journal records the length the output file had, so writing can be repeated from a clean state. A
+ * run for the same room and parameters continues from the last recorded state, any other run starts over. The
+ * journal is replaced atomically, a crash never leaves it ahead of the spool.
+ */
+final class ExportCheckpoint {
+    private static final String PHASE_FETCH = "fetch";
+    private static final String PHASE_WRITE = "write";
+
+    private final File journal;
+    private final File spool;
+    private final Properties key = new Properties();
+
+    private String phase;
+    private int pageCount;
+    private Instant newestTimestamp;
+    private Instant oldestTimestamp;
+    private long[] recentHashes;
+    private long outputLength;
+
+    private ExportCheckpoint(File out, String roomId, Instant oldest, int offset, int maxMessageCount) {
+        File parent = out.getAbsoluteFile().getParentFile();
+        this.journal = new File(parent, "." + out.getName() + ".checkpoint");
+        this.spool = new File(parent, "." + out.getName() + ".spool");
+        this.key.setProperty("roomId", roomId);
+        this.key.setProperty("oldest", oldest != null ? oldest.toString() : "");
+        this.key.setProperty("offset", String.valueOf(offset));
+        this.key.setProperty("maxMessageCount", String.valueOf(maxMessageCount));
+        reset();
+    }
+
+    private void reset() {
+        phase = PHASE_FETCH;
+        pageCount = 0;
+        newestTimestamp = null;
+        oldestTimestamp = null;
+        recentHashes = new long[0];
+        outputLength = 0;
+    }
+
+    /**
+     * Load the checkpoint of a previous run for given output file. If there is none or it was recorded for other
+     * parameters, a new checkpoint starting from scratch is returned.
+     *
+     * @param out             output file of the export
+     * @param roomId          of the exported room
+     * @param oldest          parameter of the export, may be null
+     * @param offset          parameter of the export
+     * @param maxMessageCount parameter of the export
+     * @return checkpoint, never null
+     */
+    static ExportCheckpoint load(File out, String roomId, Instant oldest, int offset, int maxMessageCount) {
+        ExportCheckpoint checkpoint = new ExportCheckpoint(out, roomId, oldest, offset, maxMessageCount);
+        if (!checkpoint.journal.isFile()) {
+            return checkpoint;
+        }
+
+        Properties stored = new Properties();
+        try (Reader reader = new InputStreamReader(new FileInputStream(checkpoint.journal), StandardCharsets.UTF_8)) {
+            stored.load(reader);
+            if (checkpoint.key.stringPropertyNames().stream()
+                    .allMatch(name -> Objects.equals(checkpoint.key.getProperty(name), stored.getProperty(name)))) {
+                checkpoint.restore(stored);
+            }
+            return checkpoint;
+        } catch (IOException | RuntimeException e) {
+            // unreadable journal, start over
+            checkpoint.complete();
+            return new ExportCheckpoint(out, roomId, oldest, offset, maxMessageCount);
+        }
+    }
+
+    private void restore(Properties stored) {
+        phase = stored.getProperty("phase");
+        if (!PHASE_FETCH.equals(phase) && !PHASE_WRITE.equals(phase)) {
+            throw new IllegalStateException("unknown phase " + phase);
+        }
+        pageCount = Integer.parseInt(stored.getProperty("pageCount"));
+        newestTimestamp = parseTimestamp(stored.getProperty("newestTimestamp"));
+        oldestTimestamp = parseTimestamp(stored.getProperty("oldestTimestamp"));
+        String hashes = stored.getProperty("recentPages");
+        recentHashes = hashes.isEmpty() ? new long[0] : parseHashes(hashes.split(","));
+        outputLength = Long.parseLong(stored.getProperty("outputLength"));
+    }
+
+    /**
+     * @return true if a previous run was interrupted this checkpoint continues from
+     */
+    boolean isResumed() {
+        return pageCount > 0 || isWritePhase();
+    }
+
+    /**
+     * @return true if all pages are fetched and only the output needs to be written
+     */
+    boolean isWritePhase() {
+        return PHASE_WRITE.equals(phase);
+    }
+
+    /**
+     * Open the persistent spool with the pages committed so far. If the spool does not match the journal, e.g.
+     * because it was modified or partially deleted, the journal is discarded and the export starts over.
+     *
+     * @param channel name every replayed message will be assigned to
+     * @return spool, must be closed
+     * @throws IOException if the spool could not be opened
+     */
+    MessageSpool openSpool(String channel) throws IOException {
+        try {
+            return MessageSpool.open(spool, channel, pageCount, newestTimestamp);
+        } catch (IOException e) {
+            complete();
+            reset();
+            return MessageSpool.open(spool, channel, 0, null);
+        }
+    }
+
+    /**
+     * @return timestamp of the oldest committed message, null if nothing was committed
+     */
+    Instant oldestTimestamp() {
+        return oldestTimestamp;
+    }
+
+    long[] recentHashes() {
+        return recentHashes;
+    }
+
+    /**
+     * @return length of the output file before anything of this export was written to it
+     */
+    long outputLength() {
+        return outputLength;
+    }
+
+    /**
+     * Record a committed page. The spool must be committed before.
+     *
+     * @param spool           committed spool
+     * @param deduplicator    after the page was completed
+     * @param oldestTimestamp of the messages of the page, including the ones dropped as duplicates
+     * @throws IOException if the journal could not be written
+     */
+    void pageCommitted(MessageSpool spool, PageDeduplicator deduplicator, Instant oldestTimestamp) throws IOException {
+        if (this.oldestTimestamp == null || oldestTimestamp.isBefore(this.oldestTimestamp)) {
+            this.oldestTimestamp = oldestTimestamp;
+        }
+        this.pageCount = spool.pageCount();
+        this.newestTimestamp = spool.newestTimestamp();
+        this.recentHashes = deduplicator.recentHashes();
+        save();
+    }
+
+    /**
+     * Record that fetching is complete and the output is about to be written.
+     *
+     * @param outputLength length of the output file at this point
+     * @throws IOException if the journal could not be written
+     */
+    void startWriting(long outputLength) throws IOException {
+        this.phase = PHASE_WRITE;
+        this.outputLength = outputLength;
+        save();
+    }
+
+    /**
+     * Cut the output file back to the length it had before writing started, so it can be written again.
+     *
+     * @param out the output file
+     * @throws IOException if the file could not be truncated
+     */
+    void truncateOutput(File out) throws IOException {
+        if (out.exists()) {
+            try (FileChannel channel = FileChannel.open(out.toPath(), StandardOpenOption.WRITE)) {
+                if (channel.size() > outputLength) {
+                    channel.truncate(outputLength);
+                }
+            }
+        }
+    }
+
+    /**
+     * Remove the journal and the spool after the export succeeded. The spool must be closed, open files can not be
+     * deleted on every platform.
+     */
+    void complete() {
+        journal.delete();
+        MessageSpool.delete(spool);
+    }
+
+    private void save() throws IOException {
+        Properties properties = new Properties();
+        properties.putAll(key);
+        properties.setProperty("phase", phase);
+        properties.setProperty("pageCount", String.valueOf(pageCount));
+        properties.setProperty("newestTimestamp", formatTimestamp(newestTimestamp));
+        properties.setProperty("oldestTimestamp", formatTimestamp(oldestTimestamp));
+        properties.setProperty("recentPages", formatHashes(recentHashes));
+        properties.setProperty("outputLength", String.valueOf(outputLength));
+
+        File tempFile = File.createTempFile(journal.getName(), ".tmp", journal.getParentFile());
+        try (Writer writer = new OutputStreamWriter(new FileOutputStream(tempFile), StandardCharsets.UTF_8)) {
+            properties.store(writer, "checkpoint of an interrupted export, delete to start over");
+        }
+        Files.move(tempFile.toPath(), journal.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static String formatTimestamp(Instant timestamp) {
+        return timestamp != null ? String.valueOf(timestamp.toEpochMilli()) : "";
+    }
+
+    private static Instant parseTimestamp(String value) {
+        return value.isEmpty() ? null : Instant.ofEpochMilli(Long.parseLong(value));
+    }
+
+    private static String formatHashes(long[] hashes) {
+        StringBuilder sb = new StringBuilder(hashes.length * 17);
+        for (long hash : hashes) {
+            if (sb.length() > 0) {
+                sb.append(',');
+            }
+            sb.append(Long.toHexString(hash));
+        }
+        return sb.toString();
+    }
+
+    private static long[] parseHashes(String[] values) {
+        long[] hashes = new long[values.length];
+        for (int i = 0; i < values.length; i++) {
+            hashes[i] = Long.parseUnsignedLong(values[i], 16);
+        }
+        return hashes;
+    }
+}
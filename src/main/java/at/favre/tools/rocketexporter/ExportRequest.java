@@ -0,0 +1,55 @@
+package at.favre.tools.rocketexporter;
+
+import at.favre.tools.rocketexporter.converter.ExportFormat;
+import lombok.Builder;
+import lombok.Data;
+
+import java.io.File;
+import java.time.Instant;
+import java.util.function.LongConsumer;
+
+/**
+ * Describes the export of a single conversation.
+ */
+@Data
+@Builder(toBuilder = true)
+public class ExportRequest {
+    private final RocketExporter.ConversationType type;
+    private final String roomName;
+    private final String roomId;
+    private final int offset;
+    private final int maxMessageCount;
+    private final File outFile;
+    private final ExportFormat format;
+    /**
+     * If set, only messages newer than this are exported
+     */
+    private final Instant oldest;
+    /**
+     * If true, the export is appended to an existing output file
+     */
+    private final boolean append;
+    /**
+     * If true, progress is journaled next to the output file, so a failed export continues where it stopped when
+     * it is requested again with the same parameters
+     */
+    private final boolean resumable;
+    /**
+     * Creation of the room, used with {@link #lastMessage} and {@link #roomMessageCount} to split large rooms into
+     * time windows fetched concurrently, see {@link Config#getMaxWindowsPerRoom()}. May be null.
+     */
+    private final Instant roomCreated;
+    /**
+     * Timestamp of the last message of the room, may be null
+     */
+    private final Instant lastMessage;
+    /**
+     * Count of messages in the room as reported by the room listing, 0 if unknown
+     */
+    private final long roomMessageCount;
+    /**
+     * Called with the size in bytes of every fetched history response, e.g. to track the progress of the export.
+     * May be called from several threads, may be null.
+     */
+    private final LongConsumer fetchListener;
+}
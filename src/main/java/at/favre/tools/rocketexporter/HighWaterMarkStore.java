@@ -0,0 +1,88 @@
+package at.favre.tools.rocketexporter;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.time.Instant;
+import java.util.Properties;
+
+/**
+ * Persists the timestamp of the most recent exported message per room, so the next run only needs to fetch
+ * newer messages. Safe to be used by concurrent exports.
+ */
+public final class HighWaterMarkStore {
+    private final File file;
+    private final Properties marks = new Properties();
+
+    private HighWaterMarkStore(File file) {
+        this.file = file;
+    }
+
+    /**
+     * Load the store from given file. If the file does not exist, the store is empty.
+     *
+     * @param file to read and persist to
+     * @return new instance
+     * @throws IOException if the file exists but could not be read
+     */
+    public static HighWaterMarkStore load(File file) throws IOException {
+        HighWaterMarkStore store = new HighWaterMarkStore(file);
+        if (file.isFile()) {
+            try (Reader reader = new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8)) {
+                store.marks.load(reader);
+            }
+        }
+        return store;
+    }
+
+    /**
+     * Get the timestamp of the most recent exported message of a room
+     *
+     * @param roomId of the room
+     * @return timestamp or null if never exported
+     */
+    public synchronized Instant get(String roomId) {
+        String value = marks.getProperty(roomId);
+        return value != null ? Instant.ofEpochMilli(Long.parseLong(value)) : null;
+    }
+
+    /**
+     * Check if a room has no messages newer than the last export, so fetching its history can be skipped.
+     *
+     * @param roomId      of the room
+     * @param lastMessage timestamp of the most recent message in the room as reported by the room listing, may be null
+     * @return true only if the room was exported before and the last message is not newer than that
+     */
+    public synchronized boolean isUpToDate(String roomId, Instant lastMessage) {
+        Instant current = get(roomId);
+        return current != null && lastMessage != null && !lastMessage.isAfter(current);
+    }
+
+    /**
+     * Set a new high-water mark, older timestamps than the current one are ignored.
+     *
+     * @param roomId    of the room
+     * @param timestamp of the most recent exported message
+     */
+    public synchronized void update(String roomId, Instant timestamp) {
+        Instant current = get(roomId);
+        if (current == null || timestamp.isAfter(current)) {
+            marks.setProperty(roomId, String.valueOf(timestamp.toEpochMilli()));
+        }
+    }
+
+    /**
+     * Write the store to disk. The file is replaced atomically, so a crash never leaves a corrupted store.
+     *
+     * @throws IOException if the file could not be written
+     */
+    public synchronized void save() throws IOException {
+        File parent = file.getAbsoluteFile().getParentFile();
+        File tempFile = File.createTempFile(file.getName(), ".tmp", parent);
+        try (Writer writer = new OutputStreamWriter(new FileOutputStream(tempFile), StandardCharsets.UTF_8)) {
+            marks.store(writer, "last exported message per room id (epoch millis)");
+        }
+        Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+}
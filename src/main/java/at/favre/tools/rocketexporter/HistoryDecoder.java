@@ -0,0 +1,143 @@
+package at.favre.tools.rocketexporter;
+
+import at.favre.tools.rocketexporter.model.Message;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.time.Instant;
+
+/**
+ * Streaming decoder for the responses of the history endpoints.
+ * <p>
+ * Instead of binding the whole response to DTOs, the 'messages' array is read token by token and every message
+ * is handed to the consumer as soon as it is complete, so only a single message is held in memory.
+ * <p>
+ * Example of a single message (all other fields are skipped):
+ * <pre>
+ * {
+ *     "_id": "1TgcYmd2c2NgQGLqj",
+ *     "rid": "P3s1nkNg8TXB9agQE",
+ *     "msg": "_... to pass the floppy disk!_",
+ *     "ts": "2019-09-23T10:13:07.097Z",
+ *     "u": {
+ *         "_id": "jA1kKLb6mnTQbE66t",
+ *         "username": "befan.sallerx",
+ *         "name": "Befan Sallerx"
+ *     },
+ *     "mentions": [],
+ *     "channels": [],
+ *     "_updatedAt": "2019-04-03T10:13:07.212Z"
+ * }
+ * </pre>
+ * See: <a href="https://developer.rocket.chat/reference/api/rest-api/endpoints/core-endpoints/channels-endpoints/history">history</a>
+ */
+final class HistoryDecoder {
+
+    private HistoryDecoder() {
+    }
+
+    /**
+     * Decode a history response
+     *
+     * @param reader   of the response body
+     * @param channel  name every message will be assigned to
+     * @param consumer called for every message in the order of the response
+     * @return count of messages in the response
+     * @throws IOException on read or parse errors or if thrown by the consumer
+     */
+    static int decode(Reader reader, String channel, MessageConsumer consumer) throws IOException {
+        int count = 0;
+        try (JsonReader json = new JsonReader(reader)) {
+            json.beginObject();
+            while (json.hasNext()) {
+                if (json.nextName().equals("messages") && json.peek() == JsonToken.BEGIN_ARRAY) {
+                    json.beginArray();
+                    while (json.hasNext()) {
+                        readMessage(json, channel, consumer);
+                        count++;
+                    }
+                    json.endArray();
+                } else {
+                    json.skipValue();
+                }
+            }
+            json.endObject();
+        }
+        return count;
+    }
+
+    private static void readMessage(JsonReader json, String channel, MessageConsumer consumer) throws IOException {
+        String id = null;
+        String msg = null;
+        String ts = null;
+        String username = null;
+
+        json.beginObject();
+        while (json.hasNext()) {
+            switch (json.nextName()) {
+                case "_id":
+                    id = nextStringOrNull(json);
+                    break;
+                case "msg":
+                    msg = nextStringOrNull(json);
+                    break;
+                case "ts":
+                    ts = nextStringOrNull(json);
+                    break;
+                case "u":
+                    username = readUserName(json);
+                    break;
+                default:
+                    json.skipValue();
+            }
+        }
+        json.endObject();
+
+        if (ts == null) {
+            throw new IOException("message without timestamp at " + json.getPath());
+        }
+
+        consumer.accept(id, new Message(msg, username, channel, Instant.ofEpochMilli(Timestamps.parseEpochMillis(ts))));
+    }
+
+    private static String readUserName(JsonReader json) throws IOException {
+        if (json.peek() != JsonToken.BEGIN_OBJECT) {
+            json.skipValue();
+            return null;
+        }
+
+        String name = null;
+        json.beginObject();
+        while (json.hasNext()) {
+            if (json.nextName().equals("name")) {
+                name = nextStringOrNull(json);
+            } else {
+                json.skipValue();
+            }
+        }
+        json.endObject();
+        return name;
+    }
+
+    private static String nextStringOrNull(JsonReader json) throws IOException {
+        if (json.peek() == JsonToken.NULL) {
+            json.nextNull();
+            return null;
+        }
+        return json.nextString();
+    }
+
+    /**
+     * Callback for decoded messages
+     */
+    interface MessageConsumer {
+        /**
+         * @param id      of the message, may be null
+         * @param message decoded message
+         * @throws IOException if the message could not be processed
+         */
+        void accept(String id, Message message) throws IOException;
+    }
+}
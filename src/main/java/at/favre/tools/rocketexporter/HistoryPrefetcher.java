@@ -0,0 +1,179 @@
+package at.favre.tools.rocketexporter;
+
+import at.favre.tools.rocketexporter.model.Message;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+
+/**
+ * Fetches history pages on a background thread while the consumer is still processing the previous ones.
+ * <p>
+ * The fetching stage requests and decodes the next page as soon as the previous one is handed over, the consuming
+ * stage deduplicates and writes it. Both are linked by a bounded queue, so the fetching stage is never more than
+ * the configured count of pages ahead.
+ */
+final class HistoryPrefetcher implements Closeable {
+    private static final Object END = new Object();
+    private static final long OFFER_TIMEOUT_MS = 100;
+
+    private final BlockingQueue<Object> queue;
+    private final Future<?> task;
+    private volatile boolean closed;
+    private boolean finished;
+
+    /**
+     * Starts fetching immediately.
+     *
+     * @param executor        to run the fetching stage on
+     * @param fetcher         requesting a single page
+     * @param offset          of the first message
+     * @param maxMessageCount how many messages to fetch at most
+     * @param pageSize        how many messages to request per page
+     * @param depth           how many pages may be fetched ahead
+     */
+    HistoryPrefetcher(ExecutorService executor, PageFetcher fetcher, int offset, int maxMessageCount, int pageSize, int depth) {
+        this(executor, fetcher, offset, maxMessageCount, PageSizer.fixed(pageSize), depth);
+    }
+
+    /**
+     * Starts fetching immediately.
+     *
+     * @param executor        to run the fetching stage on
+     * @param fetcher         requesting a single page
+     * @param offset          of the first message
+     * @param maxMessageCount how many messages to fetch at most
+     * @param pageSizer       choosing how many messages to request per page
+     * @param depth           how many pages may be fetched ahead
+     */
+    HistoryPrefetcher(ExecutorService executor, PageFetcher fetcher, int offset, int maxMessageCount, PageSizer pageSizer, int depth) {
+        this.queue = new ArrayBlockingQueue<>(Math.max(1, depth));
+        this.task = executor.submit(() -> fetchAll(fetcher, offset, maxMessageCount, pageSizer));
+    }
+
+    private void fetchAll(PageFetcher fetcher, int offset, int maxMessageCount, PageSizer pageSizer) {
+        try {
+            int currentOffset = offset;
+            int remaining = maxMessageCount;
+
+            while (remaining > 0 && !closed) {
+                Page page = new Page();
+                int received = fetcher.fetch(currentOffset, Math.min(pageSizer.pageSize(), remaining), page::add);
+
+                if (received == 0) {
+                    break;
+                }
+
+                enqueue(page);
+                currentOffset += received;
+                remaining -= received;
+            }
+            enqueue(END);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            try {
+                enqueue(e);
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private void enqueue(Object item) throws InterruptedException {
+        while (!closed) {
+            if (queue.offer(item, OFFER_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Wait for the next page.
+     *
+     * @return next page or null if there are no more messages
+     * @throws IOException             on issues during the REST call
+     * @throws TooManyRequestException if the server responds with 429
+     */
+    Page next() throws IOException, TooManyRequestException {
+        if (finished) {
+            return null;
+        }
+
+        Object item;
+        try {
+            item = queue.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while waiting for history page");
+        }
+
+        if (item == END) {
+            finished = true;
+            return null;
+        } else if (item instanceof Page) {
+            return (Page) item;
+        }
+
+        finished = true;
+        if (item instanceof IOException) {
+            throw (IOException) item;
+        } else if (item instanceof TooManyRequestException) {
+            throw (TooManyRequestException) item;
+        } else if (item instanceof RuntimeException) {
+            throw (RuntimeException) item;
+        } else {
+            throw new IllegalStateException((Exception) item);
+        }
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        task.cancel(true);
+        queue.clear();
+    }
+
+    /**
+     * Requests a single page
+     */
+    interface PageFetcher {
+        /**
+         * @param offset   of the first message
+         * @param count    of messages to request
+         * @param consumer to call for every message in the response
+         * @return count of messages in the response
+         * @throws IOException             on issues during the REST call
+         * @throws TooManyRequestException if the server responds with 429
+         */
+        int fetch(int offset, int count, HistoryDecoder.MessageConsumer consumer) throws IOException, TooManyRequestException;
+    }
+
+    /**
+     * Messages of a single page in the order of the response
+     */
+    static final class Page {
+        private final List<String> ids = new ArrayList<>();
+        private final List<Message> messages = new ArrayList<>();
+
+        private void add(String id, Message message) {
+            ids.add(id);
+            messages.add(message);
+        }
+
+        int size() {
+            return messages.size();
+        }
+
+        String id(int index) {
+            return ids.get(index);
+        }
+
+        Message message(int index) {
+            return messages.get(index);
+        }
+    }
+}
@@ -0,0 +1,175 @@
+package at.favre.tools.rocketexporter;
+
+import at.favre.tools.rocketexporter.model.Message;
+import okhttp3.ResponseBody;
+import retrofit2.Call;
+import retrofit2.Callback;
+import retrofit2.Response;
+
+import java.io.IOException;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Publishes the messages of a room page by page with asynchronous calls.
+ * <p>
+ * At most one page is requested at a time and only if the subscriber has outstanding demand and all messages of the
+ * previous page were delivered, so the subscriber controls how fast the history is fetched.
+ */
+final class HistoryPublisher implements Flow.Publisher<Message> {
+    private final CallFactory callFactory;
+    private final String channel;
+    private final int offset;
+    private final int maxMessageCount;
+    private final int pageSize;
+
+    HistoryPublisher(CallFactory callFactory, String channel, int offset, int maxMessageCount, int pageSize) {
+        this.callFactory = callFactory;
+        this.channel = channel;
+        this.offset = offset;
+        this.maxMessageCount = maxMessageCount;
+        this.pageSize = pageSize;
+    }
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super Message> subscriber) {
+        HistorySubscription subscription = new HistorySubscription(subscriber);
+        subscriber.onSubscribe(subscription);
+        subscription.drain();
+    }
+
+    /**
+     * Creates the call for a single page
+     */
+    interface CallFactory {
+        Call<ResponseBody> create(int offset, int count);
+    }
+
+    private final class HistorySubscription implements Flow.Subscription, Callback<ResponseBody> {
+        private final Flow.Subscriber<? super Message> subscriber;
+        private final Queue<Message> buffer = new ConcurrentLinkedQueue<>();
+        private final AtomicLong demand = new AtomicLong();
+        private final AtomicInteger wip = new AtomicInteger();
+        // the subscriber may take its time between two pages
+        private final PageDeduplicator deduplicator = new PageDeduplicator(2);
+
+        private volatile boolean cancelled;
+        private volatile boolean inFlight;
+        private volatile boolean exhausted;
+        private volatile Throwable error;
+        private volatile Call<ResponseBody> call;
+        private int currentOffset = offset;
+        private int remaining = maxMessageCount;
+        private boolean terminated;
+
+        private HistorySubscription(Flow.Subscriber<? super Message> subscriber) {
+            this.subscriber = subscriber;
+        }
+
+        @Override
+        public void request(long n) {
+            if (n <= 0) {
+                error = new IllegalArgumentException("non-positive request: " + n);
+                cancelCall();
+            } else {
+                demand.getAndUpdate(current -> current + n < 0 ? Long.MAX_VALUE : current + n);
+            }
+            drain();
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+            cancelCall();
+        }
+
+        private void cancelCall() {
+            Call<ResponseBody> current = call;
+            if (current != null) {
+                current.cancel();
+            }
+        }
+
+        /**
+         * Serializes all signals to the subscriber, may be called from any thread.
+         */
+        private void drain() {
+            if (wip.getAndIncrement() != 0) {
+                return;
+            }
+
+            int missed = 1;
+            do {
+                while (!cancelled && !terminated && error == null && demand.get() > 0) {
+                    Message message = buffer.poll();
+                    if (message == null) {
+                        break;
+                    }
+                    demand.decrementAndGet();
+                    subscriber.onNext(message);
+                }
+
+                if (!cancelled && !terminated) {
+                    if (error != null) {
+                        terminated = true;
+                        buffer.clear();
+                        subscriber.onError(error);
+                    } else if (buffer.isEmpty() && !inFlight) {
+                        if (exhausted || remaining <= 0) {
+                            terminated = true;
+                            subscriber.onComplete();
+                        } else if (demand.get() > 0) {
+                            inFlight = true;
+                            call = callFactory.create(currentOffset, Math.min(pageSize, remaining));
+                            call.enqueue(this);
+                        }
+                    }
+                }
+
+                missed = wip.addAndGet(-missed);
+            } while (missed != 0);
+        }
+
+        @Override
+        public void onResponse(Call<ResponseBody> call, Response<ResponseBody> response) {
+            try {
+                ResponseBody body;
+                if (response.code() == 200 && (body = response.body()) != null) {
+                    try (body) {
+                        int received = HistoryDecoder.decode(body.charStream(), channel, (id, message) -> {
+                            if (deduplicator.accept(id)) {
+                                buffer.add(message);
+                            }
+                        });
+                        deduplicator.nextPage();
+                        currentOffset += received;
+                        remaining -= received;
+                        exhausted = received == 0;
+                    }
+                } else {
+                    try (ResponseBody errorBody = response.errorBody()) {
+                        error = response.code() == 429
+                                ? new TooManyRequestException(errorBody != null ? errorBody.string() : null)
+                                : new IllegalStateException("error response: " + response.code());
+                    }
+                }
+            } catch (IOException | RuntimeException e) {
+                error = e;
+            }
+            inFlight = false;
+            drain();
+        }
+
+        @Override
+        public void onFailure(Call<ResponseBody> call, Throwable t) {
+            if (!cancelled) {
+                error = t;
+            }
+            inFlight = false;
+            drain();
+        }
+    }
+}
@@ -0,0 +1,329 @@
+package at.favre.tools.rocketexporter;
+
+import at.favre.tools.rocketexporter.model.Message;
+
+import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Disk backed buffer for history pages.
+ * <p>
+ * The history endpoints return the most recent messages first, while exports are written oldest first. Instead of
+ * keeping every page in memory, pages are appended to a temporary file and replayed in reverse order after
+ * fetching, so only a single page is held in memory at any time.
+ * <p>
+ * A persistent spool keeps its file after closing and writes the page boundaries to an index file next to it, so
+ * an interrupted export can continue with the pages committed so far.
+ */
+final class MessageSpool implements Closeable {
+    private static final int INDEX_ENTRY_SIZE = Long.BYTES + 2 * Integer.BYTES;
+
+    private final File file;
+    private final String channel;
+    private final CountingOutputStream counter;
+    private final DataOutputStream data;
+    private final DataOutputStream index;
+
+    private long[] pageOffsets = new long[64];
+    private int[] pageLengths = new int[64];
+    private int[] pageMessageCounts = new int[64];
+    private int pageCount;
+    private int currentPageMessageCount;
+    private long position;
+    private long messageCount;
+    private int indexedPageCount;
+    private Instant newestTimestamp;
+
+    private MessageSpool(File file, String channel, long length, DataOutputStream index) throws IOException {
+        this.file = file;
+        this.channel = channel;
+        this.counter = new CountingOutputStream(new BufferedOutputStream(new FileOutputStream(file, length > 0), 64 * 1024), length);
+        this.data = new DataOutputStream(counter);
+        this.index = index;
+        this.position = length;
+    }
+
+    /**
+     * Creates a new empty spool file in given directory.
+     *
+     * @param directory where to put the temporary file
+     * @param channel   name every replayed message will be assigned to
+     * @return new instance, must be closed
+     * @throws IOException if the file could not be created
+     */
+    static MessageSpool create(File directory, String channel) throws IOException {
+        return new MessageSpool(File.createTempFile("rocketchat-export", ".spool", directory), channel, 0, null);
+    }
+
+    /**
+     * Opens a persistent spool. Everything after the given count of committed pages is discarded, so the spool
+     * continues exactly where the last {@link #commit()} this count was recorded for left off.
+     *
+     * @param file            of the spool, created if it does not exist
+     * @param channel         name every replayed message will be assigned to
+     * @param committedPages  see {@link #pageCount()}, 0 to start empty
+     * @param newestTimestamp see {@link #newestTimestamp()} of the committed pages, may be null
+     * @return new instance, must be closed
+     * @throws IOException if the files could not be opened or are shorter than the committed pages
+     */
+    static MessageSpool open(File file, String channel, int committedPages, Instant newestTimestamp) throws IOException {
+        File indexFile = indexFile(file);
+        long[] offsets = new long[Math.max(64, committedPages)];
+        int[] lengths = new int[offsets.length];
+        int[] counts = new int[offsets.length];
+        long length = 0;
+        long messageCount = 0;
+
+        if (committedPages > 0) {
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile)))) {
+                for (int i = 0; i < committedPages; i++) {
+                    offsets[i] = in.readLong();
+                    lengths[i] = in.readInt();
+                    counts[i] = in.readInt();
+                    messageCount += counts[i];
+                }
+            }
+            length = offsets[committedPages - 1] + lengths[committedPages - 1];
+            if (file.length() < length) {
+                throw new IOException("spool " + file + " is shorter than its index");
+            }
+        }
+        truncate(file, length);
+        truncate(indexFile, (long) committedPages * INDEX_ENTRY_SIZE);
+
+        MessageSpool spool = new MessageSpool(file, channel, length,
+                new DataOutputStream(new BufferedOutputStream(new FileOutputStream(indexFile, true))));
+        spool.pageOffsets = offsets;
+        spool.pageLengths = lengths;
+        spool.pageMessageCounts = counts;
+        spool.pageCount = committedPages;
+        spool.indexedPageCount = committedPages;
+        spool.messageCount = messageCount;
+        spool.newestTimestamp = newestTimestamp;
+        return spool;
+    }
+
+    /**
+     * Removes the files of a persistent spool.
+     *
+     * @param file of the spool
+     */
+    static void delete(File file) {
+        file.delete();
+        indexFile(file).delete();
+    }
+
+    private static File indexFile(File file) {
+        return new File(file.getPath() + "-index");
+    }
+
+    private static void truncate(File file, long length) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            if (channel.size() > length) {
+                channel.truncate(length);
+            }
+        }
+    }
+
+    /**
+     * Appends a message to the current page. Messages must be appended in the order returned by the server
+     * (most recent first).
+     *
+     * @param message to append
+     * @throws IOException on write issues
+     */
+    void append(Message message) throws IOException {
+        long timestamp = message.getTimestamp().toEpochMilli();
+        if (newestTimestamp == null || timestamp > newestTimestamp.toEpochMilli()) {
+            newestTimestamp = message.getTimestamp();
+        }
+
+        data.writeLong(timestamp);
+        writeString(data, message.getUsername());
+        writeString(data, message.getMessage());
+        currentPageMessageCount++;
+    }
+
+    /**
+     * Completes the current page, following messages will be part of a new page.
+     */
+    void endPage() {
+        long length = counter.count() - position;
+        if (currentPageMessageCount == 0) {
+            return;
+        }
+
+        ensureCapacity();
+        pageOffsets[pageCount] = position;
+        pageLengths[pageCount] = Math.toIntExact(length);
+        pageMessageCounts[pageCount] = currentPageMessageCount;
+        pageCount++;
+
+        position += length;
+        messageCount += currentPageMessageCount;
+        currentPageMessageCount = 0;
+    }
+
+    /**
+     * Completes the current page and hands all pages and, for persistent spools, their index entries to the
+     * operating system, so they survive if the process dies.
+     *
+     * @throws IOException on write issues
+     */
+    void commit() throws IOException {
+        endPage();
+        data.flush();
+        if (index != null) {
+            for (; indexedPageCount < pageCount; indexedPageCount++) {
+                index.writeLong(pageOffsets[indexedPageCount]);
+                index.writeInt(pageLengths[indexedPageCount]);
+                index.writeInt(pageMessageCounts[indexedPageCount]);
+            }
+            index.flush();
+        }
+    }
+
+    /**
+     * Replays all appended pages, oldest page first, each page sorted oldest message first.
+     *
+     * @param visitor to call for every page
+     * @throws IOException on read issues or if thrown by the visitor
+     */
+    void replay(PageVisitor visitor) throws IOException {
+        endPage();
+        data.flush();
+
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            byte[] buffer = new byte[0];
+            for (int i = pageCount - 1; i >= 0; i--) {
+                if (buffer.length < pageLengths[i]) {
+                    buffer = new byte[pageLengths[i]];
+                }
+                raf.seek(pageOffsets[i]);
+                raf.readFully(buffer, 0, pageLengths[i]);
+
+                DataInputStream data = new DataInputStream(new ByteArrayInputStream(buffer, 0, pageLengths[i]));
+                List<Message> page = new ArrayList<>(pageMessageCounts[i]);
+                for (int j = 0; j < pageMessageCounts[i]; j++) {
+                    Instant timestamp = Instant.ofEpochMilli(data.readLong());
+                    String username = readString(data);
+                    String message = readString(data);
+                    page.add(new Message(message, username, channel, timestamp));
+                }
+                Collections.reverse(page);
+                visitor.visit(page);
+            }
+        }
+    }
+
+    /**
+     * @return count of all completed pages
+     */
+    int pageCount() {
+        return pageCount;
+    }
+
+    /**
+     * @return count of all messages appended
+     */
+    long size() {
+        return messageCount;
+    }
+
+    /**
+     * @return timestamp of the most recent message appended or null if empty
+     */
+    Instant newestTimestamp() {
+        return newestTimestamp;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (index != null) {
+            try {
+                data.close();
+            } finally {
+                index.close();
+            }
+            return;
+        }
+        try {
+            data.close();
+        } finally {
+            if (!file.delete()) {
+                file.deleteOnExit();
+            }
+        }
+    }
+
+    private void ensureCapacity() {
+        if (pageCount == pageOffsets.length) {
+            int newLength = pageOffsets.length * 2;
+            pageOffsets = Arrays.copyOf(pageOffsets, newLength);
+            pageLengths = Arrays.copyOf(pageLengths, newLength);
+            pageMessageCounts = Arrays.copyOf(pageMessageCounts, newLength);
+        }
+    }
+
+    private static void writeString(DataOutputStream data, String value) throws IOException {
+        if (value == null) {
+            data.writeInt(-1);
+        } else {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            data.writeInt(bytes.length);
+            data.write(bytes);
+        }
+    }
+
+    private static String readString(DataInputStream data) throws IOException {
+        int length = data.readInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        data.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Counts the bytes written to the delegate
+     */
+    private static final class CountingOutputStream extends FilterOutputStream {
+        private long count;
+
+        CountingOutputStream(OutputStream out, long count) {
+            super(out);
+            this.count = count;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+
+        long count() {
+            return count;
+        }
+    }
+
+    /**
+     * Callback for replayed pages
+     */
+    interface PageVisitor {
+        void visit(List<Message> page) throws IOException;
+    }
+}
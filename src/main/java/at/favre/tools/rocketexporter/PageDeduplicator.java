@@ -0,0 +1,183 @@
+package at.favre.tools.rocketexporter;
+
+import java.util.Arrays;
+
+/**
+ * Filters duplicates between consecutive history pages by message id.
+ * <p>
+ * New messages arriving while an export is running shift the offsets of all older messages, so the start of a page
+ * may repeat the end of the pages before it. The ids of a bounded number of recent pages are remembered, which
+ * keeps the memory footprint independent of the room size: if more new messages than fit into these pages arrive
+ * between fetching a page and the ones remembered before it, the repeated messages are not detected. Ids are kept as
+ * 64-bit hashes in open addressing tables that are reused for every page, so there is no allocation per message.
+ */
+final class PageDeduplicator {
+    /**
+     * Current page first, followed by the remembered pages, most recent first
+     */
+    private final LongSet[] pages;
+
+    /**
+     * @param rememberedPages how many completed pages are remembered, at least 1
+     */
+    PageDeduplicator(int rememberedPages) {
+        if (rememberedPages < 1) {
+            throw new IllegalArgumentException("at least one page must be remembered");
+        }
+        pages = new LongSet[rememberedPages + 1];
+        for (int i = 0; i < pages.length; i++) {
+            pages[i] = new LongSet();
+        }
+    }
+
+    /**
+     * Continue after a page completed earlier, e.g. by a previous run.
+     *
+     * @param rememberedPages how many completed pages are remembered, at least 1
+     * @param recentHashes    see {@link #recentHashes()}, treated as the last completed page
+     */
+    PageDeduplicator(int rememberedPages, long[] recentHashes) {
+        this(rememberedPages);
+        for (long hash : recentHashes) {
+            pages[1].add(hash);
+        }
+    }
+
+    /**
+     * Check if the given message id was not already seen.
+     *
+     * @param id of the message, messages without id are always accepted
+     * @return true if the message should be kept
+     */
+    boolean accept(String id) {
+        if (id == null) {
+            return true;
+        }
+        long hash = hash(id);
+        for (int i = 1; i < pages.length; i++) {
+            if (pages[i].contains(hash)) {
+                return false;
+            }
+        }
+        return pages[0].add(hash);
+    }
+
+    /**
+     * Must be called after each page.
+     */
+    void nextPage() {
+        LongSet recycled = pages[pages.length - 1];
+        System.arraycopy(pages, 0, pages, 1, pages.length - 1);
+        pages[0] = recycled;
+        recycled.clear();
+    }
+
+    /**
+     * @return hashes of the ids of all remembered pages
+     */
+    long[] recentHashes() {
+        long[] hashes = new long[0];
+        for (int i = 1; i < pages.length; i++) {
+            long[] page = pages[i].toArray();
+            int length = hashes.length;
+            hashes = Arrays.copyOf(hashes, length + page.length);
+            System.arraycopy(page, 0, hashes, length, page.length);
+        }
+        return hashes;
+    }
+
+    /**
+     * 64-bit FNV-1a
+     */
+    static long hash(String id) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < id.length(); i++) {
+            hash ^= id.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    /**
+     * Minimal open addressing hash set of longs with linear probing
+     */
+    private static final class LongSet {
+        private static final long EMPTY = 0;
+
+        private long[] table = new long[256];
+        private int size;
+        private boolean containsEmpty;
+
+        boolean contains(long value) {
+            if (value == EMPTY) {
+                return containsEmpty;
+            }
+            int mask = table.length - 1;
+            for (int i = mix(value) & mask; table[i] != EMPTY; i = (i + 1) & mask) {
+                if (table[i] == value) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        boolean add(long value) {
+            if (value == EMPTY) {
+                boolean added = !containsEmpty;
+                containsEmpty = true;
+                return added;
+            }
+            if ((size + 1) * 2 > table.length) {
+                grow();
+            }
+            int mask = table.length - 1;
+            int i = mix(value) & mask;
+            for (; table[i] != EMPTY; i = (i + 1) & mask) {
+                if (table[i] == value) {
+                    return false;
+                }
+            }
+            table[i] = value;
+            size++;
+            return true;
+        }
+
+        long[] toArray() {
+            long[] values = new long[size + (containsEmpty ? 1 : 0)];
+            int i = 0;
+            for (long value : table) {
+                if (value != EMPTY) {
+                    values[i++] = value;
+                }
+            }
+            if (containsEmpty) {
+                values[i] = EMPTY;
+            }
+            return values;
+        }
+
+        void clear() {
+            if (size > 0) {
+                Arrays.fill(table, EMPTY);
+                size = 0;
+            }
+            containsEmpty = false;
+        }
+
+        private void grow() {
+            long[] old = table;
+            table = new long[old.length * 2];
+            size = 0;
+            for (long value : old) {
+                if (value != EMPTY) {
+                    add(value);
+                }
+            }
+        }
+
+        private static int mix(long value) {
+            long h = value * 0x9E3779B97F4A7C15L;
+            return (int) (h ^ (h >>> 32));
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package at.favre.tools.rocketexporter;
+
+/**
+ * Chooses the count of messages requested per history page.
+ * <p>
+ * Messages differ a lot in size between rooms: short chat lines allow large pages, long pasted logs make even
+ * small pages slow and large. An adaptive sizer measures every response and scales the page size so latency and
+ * response size stay below their targets: it shrinks right away to what would have met the targets and grows by
+ * at most a factor of two while there is plenty of headroom. Short pages (e.g. the last one or pages capped by the
+ * server's 'API_Upper_Count_Limit') never cause growth.
+ */
+final class PageSizer {
+    private final int minPageSize;
+    private final int maxPageSize;
+    private final long latencyTargetMs;
+    private final long bytesTarget;
+    private int pageSize;
+
+    /**
+     * @param initialPageSize first page size
+     * @param minPageSize     lower bound
+     * @param maxPageSize     upper bound
+     * @param latencyTargetMs how long fetching a page may take
+     * @param bytesTarget     how large a response may be
+     */
+    PageSizer(int initialPageSize, int minPageSize, int maxPageSize, long latencyTargetMs, long bytesTarget) {
+        this.minPageSize = Math.max(1, Math.min(minPageSize, initialPageSize));
+        this.maxPageSize = Math.max(maxPageSize, initialPageSize);
+        this.latencyTargetMs = latencyTargetMs;
+        this.bytesTarget = bytesTarget;
+        this.pageSize = initialPageSize;
+    }
+
+    /**
+     * @param pageSize used for every page
+     * @return sizer which never changes the page size
+     */
+    static PageSizer fixed(int pageSize) {
+        return new PageSizer(pageSize, pageSize, pageSize, Long.MAX_VALUE, Long.MAX_VALUE);
+    }
+
+    /**
+     * @param settings of the adaptive sizing
+     * @param pageSize initial page size
+     * @return adaptive or fixed sizer depending on the settings
+     */
+    static PageSizer of(Config.PageSizing settings, int pageSize) {
+        if (!settings.isAdaptive()) {
+            return fixed(pageSize);
+        }
+        return new PageSizer(pageSize, settings.getMinPageSize(), settings.getMaxPageSize(),
+                settings.getLatencyTarget().toMillis(), settings.getBytesTarget());
+    }
+
+    /**
+     * @return count of messages to request with the next page
+     */
+    synchronized int pageSize() {
+        return pageSize;
+    }
+
+    /**
+     * Adapt the page size to a fetched page.
+     *
+     * @param requested count of messages requested
+     * @param received  count of messages in the response
+     * @param latencyMs from sending the request until the response was read completely
+     * @param bytes     size of the response body
+     * @return true if the page size changed
+     */
+    synchronized boolean record(int requested, int received, long latencyMs, long bytes) {
+        if (minPageSize == maxPageSize || received == 0) {
+            return false;
+        }
+
+        // how many times the received messages would have fit into the targets
+        double headroom = Math.min((double) latencyTargetMs / Math.max(1, latencyMs), (double) bytesTarget / Math.max(1, bytes));
+        int previous = pageSize;
+        if (headroom < 1) {
+            pageSize = clamp((long) (received * headroom));
+        } else if (headroom >= 1.5 && received >= requested) {
+            pageSize = clamp(Math.max(previous, Math.min(2L * previous, (long) (received * headroom * 0.75))));
+        }
+        return pageSize != previous;
+    }
+
+    private int clamp(long size) {
+        return (int) Math.max(minPageSize, Math.min(maxPageSize, size));
+    }
+}
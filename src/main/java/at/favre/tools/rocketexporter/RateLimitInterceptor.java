@@ -0,0 +1,211 @@
+package at.favre.tools.rocketexporter;
+
+import okhttp3.Interceptor;
+import okhttp3.Response;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.LongSupplier;
+
+/**
+ * Client side rate limiter which paces requests according to the rate limit headers sent by Rocket Chat.
+ * <p>
+ * Rocket Chat limits every REST endpoint individually and reports the budget of the current window with
+ * 'X-RateLimit-Limit', 'X-RateLimit-Remaining' and 'X-RateLimit-Reset'. Every endpoint gets its own token bucket
+ * which is synchronized with these headers and spreads the remaining budget evenly over the rest of the window,
+ * keeping a small reserve for requests still in flight. One instance is meant to be shared by all requests of a client.
+ * <p>
+ * If the server still responds with 429, the bucket is drained and the request retried after the window reset.
+ */
+final class RateLimitInterceptor implements Interceptor {
+    static final String HEADER_LIMIT = "X-RateLimit-Limit";
+    static final String HEADER_REMAINING = "X-RateLimit-Remaining";
+    static final String HEADER_RESET = "X-RateLimit-Reset";
+
+    private static final int MAX_RETRIES_ON_429 = 3;
+    private static final long DEFAULT_BACKOFF_ON_429_MS = 5000;
+
+    private final Map<String, Bucket> buckets = new ConcurrentHashMap<>();
+    private final LongSupplier clock;
+
+    RateLimitInterceptor() {
+        this(System::currentTimeMillis);
+    }
+
+    RateLimitInterceptor(LongSupplier clock) {
+        this.clock = clock;
+    }
+
+    @Override
+    public Response intercept(Chain chain) throws IOException {
+        Bucket bucket = buckets.computeIfAbsent(chain.request().url().encodedPath(), k -> new Bucket());
+
+        for (int retry = 0; ; retry++) {
+            sleepUntil(bucket.acquire(clock.getAsLong()));
+
+            Response response = chain.proceed(chain.request());
+            long now = clock.getAsLong();
+
+            if (response.code() == 429 && retry < MAX_RETRIES_ON_429) {
+                long reset = parseReset(response.header(HEADER_RESET), now);
+                bucket.drain(reset > now ? reset : now + DEFAULT_BACKOFF_ON_429_MS);
+                response.close();
+                continue;
+            }
+
+            Long limit = parseLong(response.header(HEADER_LIMIT));
+            Long remaining = parseLong(response.header(HEADER_REMAINING));
+            long reset = parseReset(response.header(HEADER_RESET), now);
+            if (limit != null && remaining != null && reset > now) {
+                bucket.update(limit, remaining, reset, now);
+            }
+            return response;
+        }
+    }
+
+    private void sleepUntil(long permitAt) throws InterruptedIOException {
+        long waitMs = permitAt - clock.getAsLong();
+        if (waitMs > 0) {
+            try {
+                Thread.sleep(waitMs);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("interrupted while waiting for rate limit");
+            }
+        }
+    }
+
+    /**
+     * Rocket Chat sends the reset as epoch millis, but also accept epoch seconds and delta seconds.
+     *
+     * @return reset as epoch millis or -1 if missing
+     */
+    static long parseReset(String header, long now) {
+        Long value = parseLong(header);
+        if (value == null) {
+            return -1;
+        } else if (value > 100_000_000_000L) {
+            return value;
+        } else if (value > 1_000_000_000L) {
+            return value * 1000;
+        } else {
+            return now + value * 1000;
+        }
+    }
+
+    private static Long parseLong(String header) {
+        if (header == null) {
+            return null;
+        }
+        try {
+            return Long.parseLong(header.trim());
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Token bucket of a single endpoint. Once the budget of a window is used up, further requests are booked into the
+     * following window, whose length is learned from the reset times sent by the server, so concurrent callers queue
+     * behind each other instead of all being sent at the reset.
+     */
+    static final class Bucket {
+        private long capacity = -1;
+        private long tokens;
+        private long resetAt = -1;
+        private long windowMs;
+        private long nextPermitAt;
+        /**
+         * True if the current window was derived from a previous one and not yet confirmed by the server
+         */
+        private boolean estimated;
+
+        /**
+         * Take a token.
+         *
+         * @param now current epoch millis
+         * @return epoch millis when the request may be sent
+         */
+        synchronized long acquire(long now) {
+            if (resetAt >= 0 && now >= resetAt) {
+                nextWindow(now);
+            }
+
+            if (resetAt < 0) {
+                // no budget known (yet)
+                return now;
+            }
+
+            if (tokens <= 0) {
+                if (capacity < 0 || windowMs <= 0) {
+                    // drained without knowing the budget: wait for the reset, the next response tells the rest
+                    long permitAt = Math.max(Math.max(now, nextPermitAt), resetAt);
+                    nextPermitAt = permitAt;
+                    return permitAt;
+                }
+                // spread over the following window
+                nextPermitAt = Math.max(nextPermitAt, resetAt);
+                resetAt += windowMs;
+                tokens = capacity;
+                estimated = true;
+            }
+
+            long permitAt = Math.max(now, nextPermitAt);
+            tokens--;
+            nextPermitAt = permitAt + (resetAt - permitAt) / Math.max(1, tokens + 1);
+            return permitAt;
+        }
+
+        /**
+         * Synchronize with the budget reported by the server
+         *
+         * @param now current epoch millis
+         */
+        synchronized void update(long limit, long remaining, long reset, long now) {
+            long reserve = Math.max(1, limit / 20);
+            capacity = Math.max(1, limit - reserve);
+            long available = Math.max(0, remaining - reserve);
+            // the first response of a window sees the whole window
+            windowMs = Math.max(windowMs, reset - now);
+
+            if (resetAt >= 0 && now >= resetAt) {
+                nextWindow(now);
+            }
+
+            if (resetAt >= 0 && reset <= resetAt - windowMs / 2) {
+                // late response of an earlier window
+                return;
+            }
+
+            if (reset == resetAt || estimated) {
+                tokens = Math.min(tokens, available);
+            } else {
+                tokens = available;
+            }
+            resetAt = reset;
+            estimated = false;
+        }
+
+        /**
+         * Server rejected the request, nothing is left until given reset
+         */
+        synchronized void drain(long reset) {
+            tokens = 0;
+            resetAt = reset;
+            estimated = false;
+        }
+
+        private void nextWindow(long now) {
+            if (capacity < 0 || windowMs <= 0) {
+                resetAt = -1;
+                nextPermitAt = 0;
+                return;
+            }
+            resetAt += ((now - resetAt) / windowMs + 1) * windowMs;
+            tokens = capacity;
+            estimated = true;
+        }
+    }
+}
@@ -0,0 +1,196 @@
+package at.favre.tools.rocketexporter;
+
+import okhttp3.Interceptor;
+import okhttp3.Request;
+import okhttp3.Response;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.LongSupplier;
+
+/**
+ * Retries requests which failed for transient reasons: 5xx responses, socket timeouts and connection resets.
+ * <p>
+ * Only GET requests are retried. The delay grows exponentially up to a cap, half of it is randomized so workers
+ * failing at the same time do not retry in lockstep. A 'Retry-After' header of the server is honoured up to the cap.
+ * Every room has a budget of retries shared by all its requests, so a single broken room can not keep a worker busy
+ * for long; it is released with {@link #releaseBudget(String)} once the export of the room is done. Requests without
+ * room, e.g. listings, are only limited by the retries per request. If many requests in a row failed, the server is
+ * considered overloaded and a circuit breaker pauses all requests of the client for a while; the first request
+ * after the pause probes the server. One instance is meant to be shared by all requests of a client.
+ * <p>
+ * Waiting blocks the calling thread, so this is meant for blocking calls only. Asynchronous calls must not use it,
+ * they would block the threads of the HTTP dispatcher.
+ */
+final class RetryInterceptor implements Interceptor {
+    private final Config.Retry settings;
+    private final LongSupplier clock;
+    private final CircuitBreaker circuitBreaker;
+    private final Map<String, AtomicInteger> budgets = new ConcurrentHashMap<>();
+
+    RetryInterceptor(Config.Retry settings) {
+        this(settings, System::currentTimeMillis);
+    }
+
+    RetryInterceptor(Config.Retry settings, LongSupplier clock) {
+        this.settings = settings;
+        this.clock = clock;
+        this.circuitBreaker = new CircuitBreaker(settings.getCircuitBreakerThreshold(), settings.getCircuitBreakerPause().toMillis());
+    }
+
+    @Override
+    public Response intercept(Chain chain) throws IOException {
+        Request request = chain.request();
+        boolean retryable = "GET".equals(request.method());
+        String roomId = request.url().queryParameter("roomId");
+        AtomicInteger budget = roomId != null
+                ? budgets.computeIfAbsent(roomId, k -> new AtomicInteger(settings.getRoomRetryBudget()))
+                : new AtomicInteger(settings.getMaxRetries());
+
+        for (int retry = 0; ; retry++) {
+            sleepUntil(circuitBreaker.permitAt());
+
+            Response response = null;
+            IOException failure = null;
+            try {
+                response = chain.proceed(request);
+            } catch (IOException e) {
+                if (!isTransient(e)) {
+                    throw e;
+                }
+                failure = e;
+            }
+
+            if (response != null && !isTransient(response.code())) {
+                circuitBreaker.success();
+                return response;
+            }
+            circuitBreaker.failure(clock.getAsLong());
+
+            if (!retryable || retry >= settings.getMaxRetries() || budget.getAndUpdate(b -> Math.max(0, b - 1)) == 0) {
+                if (response != null) {
+                    return response;
+                }
+                throw failure;
+            }
+
+            long delay = backoff(retry, ThreadLocalRandom.current().nextDouble());
+            if (response != null) {
+                delay = Math.max(delay, Math.min(parseRetryAfter(response.header("Retry-After")), settings.getMaxDelay().toMillis()));
+                response.close();
+            }
+            sleepUntil(clock.getAsLong() + delay);
+        }
+    }
+
+    /**
+     * Forget the retries used by a room, e.g. after its export is done. Otherwise the budget of a room exported
+     * repeatedly by the same client would eventually be used up for good.
+     *
+     * @param roomId of the room
+     */
+    void releaseBudget(String roomId) {
+        budgets.remove(roomId);
+    }
+
+    /**
+     * Capped exponential backoff, the upper half of the delay is randomized
+     *
+     * @param retry  0 for the first retry
+     * @param random in [0, 1)
+     * @return delay in millis
+     */
+    long backoff(int retry, double random) {
+        long cap = settings.getMaxDelay().toMillis();
+        long delay = Math.min(cap, settings.getBaseDelay().toMillis() << Math.min(retry, 30));
+        return delay / 2 + (long) (delay / 2 * random);
+    }
+
+    private void sleepUntil(long until) throws InterruptedIOException {
+        long waitMs = until - clock.getAsLong();
+        if (waitMs > 0) {
+            try {
+                Thread.sleep(waitMs);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("interrupted while waiting to retry");
+            }
+        }
+    }
+
+    /**
+     * Only the delta seconds form is supported, HTTP dates are ignored
+     *
+     * @return delay in millis or -1
+     */
+    static long parseRetryAfter(String header) {
+        if (header == null) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(header.trim()) * 1000;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    static boolean isTransient(int code) {
+        return code >= 500 && code != 501 && code != 505;
+    }
+
+    static boolean isTransient(IOException e) {
+        for (Throwable t = e; t != null; t = t.getCause()) {
+            if (t instanceof SocketTimeoutException || t instanceof SocketException || t instanceof EOFException) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Opens after a given count of consecutive failures of any request and stays open for a fixed pause. While
+     * closed again, the first failure opens it immediately until a request succeeds.
+     */
+    static final class CircuitBreaker {
+        private final int threshold;
+        private final long pauseMs;
+        private int consecutiveFailures;
+        private long openUntil;
+
+        CircuitBreaker(int threshold, long pauseMs) {
+            this.threshold = threshold;
+            this.pauseMs = pauseMs;
+        }
+
+        /**
+         * @return epoch millis when requests may be sent again
+         */
+        synchronized long permitAt() {
+            return openUntil;
+        }
+
+        synchronized void success() {
+            consecutiveFailures = 0;
+        }
+
+        /**
+         * @param now current epoch millis
+         * @return true if this failure opened the circuit
+         */
+        synchronized boolean failure(long now) {
+            consecutiveFailures++;
+            if (threshold > 0 && consecutiveFailures >= threshold && now >= openUntil) {
+                openUntil = now + pauseMs;
+                return true;
+            }
+            return false;
+        }
+    }
+}
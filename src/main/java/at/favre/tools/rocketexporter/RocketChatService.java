@@ -17,6 +17,7 @@
 package at.favre.tools.rocketexporter;
 
 import at.favre.tools.rocketexporter.dto.*;
+import okhttp3.ResponseBody;
 import retrofit2.Call;
 import retrofit2.http.*;
 
@@ -29,21 +30,27 @@ public interface RocketChatService {
     @GET("/api/v1/me")
     Call<LoginResponseDto> tokenAuth(@HeaderMap Map<String, String> headers);
 
-    @GET("/api/v1/groups.list?count=0&offset=0")
-    Call<RocketChatGroups> getAllGroups(@HeaderMap Map<String, String> header);
+    @GET("/api/v1/groups.list")
+    Call<RocketChatGroups> getGroups(@HeaderMap Map<String, String> header, @Query("offset") int offset, @Query("count") int count, @Query("fields") String fields);
 
-    @GET("/api/v1/channels.list?count=0&offset=0")
-    Call<RocketChatChannel> getAllChannels(@HeaderMap Map<String, String> header);
+    @GET("/api/v1/channels.list")
+    Call<RocketChatChannel> getChannels(@HeaderMap Map<String, String> header, @Query("offset") int offset, @Query("count") int count, @Query("fields") String fields);
 
-    @GET("/api/v1/im.list?count=0&offset=0")
-    Call<RocketChatDm> getAllDirectMessages(@HeaderMap Map<String, String> header);
+    @GET("/api/v1/im.list")
+    Call<RocketChatDm> getDirectMessages(@HeaderMap Map<String, String> header, @Query("offset") int offset, @Query("count") int count, @Query("fields") String fields);
 
+    @GET("/api/v1/rooms.get")
+    Call<RocketChatRooms> getRoomChanges(@HeaderMap Map<String, String> header, @Query("updatedSince") String updatedSince);
+
+    @Streaming
     @GET("/api/v1/groups.history")
-    Call<RocketChatMessageWrapperDto> getAllMessagesFromGroup(@HeaderMap Map<String, String> header, @Query("roomId") String groupId, @Query("offset") long offset, @Query("count") long count);
+    Call<ResponseBody> getAllMessagesFromGroup(@HeaderMap Map<String, String> header, @Query("roomId") String groupId, @Query("offset") long offset, @Query("count") long count, @Query("oldest") String oldest, @Query("latest") String latest);
 
+    @Streaming
     @GET("/api/v1/channels.history")
-    Call<RocketChatMessageWrapperDto> getAllMessagesFromChannels(@HeaderMap Map<String, String> header, @Query("roomId") String channelId, @Query("offset") long offset, @Query("count") long count);
+    Call<ResponseBody> getAllMessagesFromChannels(@HeaderMap Map<String, String> header, @Query("roomId") String channelId, @Query("offset") long offset, @Query("count") long count, @Query("oldest") String oldest, @Query("latest") String latest);
 
+    @Streaming
     @GET("/api/v1/im.history")
-    Call<RocketChatMessageWrapperDto> getAllMessagesFromDirectMessages(@HeaderMap Map<String, String> header, @Query("roomId") String dmId, @Query("offset") long offset, @Query("count") long count);
+    Call<ResponseBody> getAllMessagesFromDirectMessages(@HeaderMap Map<String, String> header, @Query("roomId") String dmId, @Query("offset") long offset, @Query("count") long count, @Query("oldest") String oldest, @Query("latest") String latest);
 }
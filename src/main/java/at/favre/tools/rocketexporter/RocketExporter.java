@@ -2,20 +2,40 @@ package at.favre.tools.rocketexporter;
 
 import at.favre.tools.rocketexporter.converter.ExportFormat;
 import at.favre.tools.rocketexporter.dto.*;
+import at.favre.tools.rocketexporter.model.ExportResult;
 import at.favre.tools.rocketexporter.model.Message;
+import at.favre.tools.rocketexporter.model.RoomChanges;
+import okhttp3.ConnectionPool;
+import okhttp3.Dispatcher;
+import okhttp3.MediaType;
 import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+import okhttp3.ResponseBody;
 import okhttp3.logging.HttpLoggingInterceptor;
+import retrofit2.Call;
+import retrofit2.Callback;
 import retrofit2.Response;
 import retrofit2.Retrofit;
 import retrofit2.converter.gson.GsonConverterFactory;
 import retrofit2.converter.scalars.ScalarsConverterFactory;
 
-import java.io.File;
-import java.io.FileOutputStream;
-import java.io.IOException;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
 import java.time.Instant;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.LongConsumer;
 import java.util.stream.Collectors;
 
 /**
@@ -67,6 +87,44 @@ public interface RocketExporter {
      */
     List<RocketChatDm.DirectMessage> listDirectMessageChannels() throws IOException;
 
+    /**
+     * Page through all accessible groups, each page is passed to the consumer as soon as it arrives.
+     * Requires login first.
+     *
+     * @param consumer called for every group
+     * @throws IOException on issues during the REST call
+     */
+    void forEachGroup(Consumer<RocketChatGroups.Group> consumer) throws IOException;
+
+    /**
+     * Page through all accessible channels, each page is passed to the consumer as soon as it arrives.
+     * Requires login first.
+     *
+     * @param consumer called for every channel
+     * @throws IOException on issues during the REST call
+     */
+    void forEachChannel(Consumer<RocketChatChannel.Channel> consumer) throws IOException;
+
+    /**
+     * Page through all direct message conversations, each page is passed to the consumer as soon as it arrives.
+     * Requires login first.
+     *
+     * @param consumer called for every conversation
+     * @throws IOException on issues during the REST call
+     */
+    void forEachDirectMessageChannel(Consumer<RocketChatDm.DirectMessage> consumer) throws IOException;
+
+    /**
+     * Get rooms the user is subscribed to which were created, changed or deleted after given time. This is a lot
+     * cheaper than listing all rooms, so it can be used to revalidate previously listed rooms.
+     * Requires login first.
+     *
+     * @param updatedSince only return changes after this time
+     * @return changes or null if the server does not support this query
+     * @throws IOException on issues during the REST call
+     */
+    RoomChanges listRoomChanges(Instant updatedSince) throws IOException;
+
     /**
      * Export messages from a group.
      * Requires login first.
@@ -75,12 +133,13 @@ public interface RocketExporter {
      * @param roomId          used identify the room within the REST Api
      * @param offset          of messages to export (0 means "from the most recent")
      * @param maxMessageCount how many messages to export
+     * @param out             file to write the export to
      * @param exportFormat    selected output format
-     * @return exported messages
+     * @return summary of the export
      * @throws IOException on issues during the REST call
      * @throws TooManyRequestException if the server responds with 429, you need to throttle the requests
      */
-    List<Message> exportPrivateGroupMessages(String roomName, String roomId,
+    ExportResult exportPrivateGroupMessages(String roomName, String roomId,
                                              int offset, int maxMessageCount,
                                              File out, ExportFormat exportFormat) throws IOException, TooManyRequestException;
 
@@ -92,12 +151,13 @@ public interface RocketExporter {
      * @param channelId       used identify the room within the REST Api
      * @param offset          of messages to export (0 means "from the most recent")
      * @param maxMessageCount how many messages to export
+     * @param out             file to write the export to
      * @param exportFormat    selected output format
-     * @return exported messages
+     * @return summary of the export
      * @throws IOException on issues during the REST call
      * @throws TooManyRequestException if the server responds with 429, you need to throttle the requests
      */
-    List<Message> exportChannelMessages(String channelName, String channelId,
+    ExportResult exportChannelMessages(String channelName, String channelId,
                                         int offset, int maxMessageCount,
                                         File out, ExportFormat exportFormat) throws IOException, TooManyRequestException;
 
@@ -109,15 +169,35 @@ public interface RocketExporter {
      * @param dmId            used identify the room within the REST Api
      * @param offset          of messages to export (0 means "from the most recent")
      * @param maxMessageCount how many messages to export
+     * @param out             file to write the export to
      * @param exportFormat    selected output format
-     * @return exported messages
+     * @return summary of the export
      * @throws IOException on issues during the REST call
      * @throws TooManyRequestException if the server responds with 429, you need to throttle the requests
      */
-    List<Message> exportDirectMessages(String dmName, String dmId,
+    ExportResult exportDirectMessages(String dmName, String dmId,
                                        int offset, int maxMessageCount,
                                        File out, ExportFormat exportFormat) throws IOException, TooManyRequestException;
 
+    /**
+     * Export messages from any conversation type described by the request.
+     * Requires login first. Implementations are safe to be called concurrently after login.
+     *
+     * @param request describing what and where to export
+     * @return summary of the export
+     * @throws IOException             on issues during the REST call
+     * @throws TooManyRequestException if the server responds with 429, you need to throttle the requests
+     */
+    ExportResult export(ExportRequest request) throws IOException, TooManyRequestException;
+
+    /**
+     * Non-blocking view of this exporter sharing the same session and HTTP client.
+     * Requires login first for all calls.
+     *
+     * @return async exporter
+     */
+    AsyncRocketExporter async();
+
     /**
      * Creates a new instance of exporter
      *
@@ -158,14 +238,23 @@ public interface RocketExporter {
      * Default implementation
      */
     class Default implements RocketExporter {
+        private static final String GROUP_FIELDS = "{\"_id\":1,\"name\":1,\"fname\":1,\"usersCount\":1,\"topic\":1,\"msgs\":1,\"_updatedAt\":1,\"ts\":1,\"lm\":1}";
+        private static final String CHANNEL_FIELDS = "{\"_id\":1,\"name\":1,\"msgs\":1,\"_updatedAt\":1,\"ts\":1,\"lm\":1}";
+        private static final String DM_FIELDS = "{\"_id\":1,\"msgs\":1,\"_updatedAt\":1,\"ts\":1,\"lm\":1,\"usernames\":1,\"topic\":1}";
+
         private final Config config;
+        private final RateLimitInterceptor rateLimitInterceptor = new RateLimitInterceptor();
+        private final RetryInterceptor retryInterceptor;
 
         private RocketChatService service;
-        private Map<String, String> authHeaders;
-        private String userName;
+        private RocketChatService asyncService;
+        private ExecutorService prefetchExecutor;
+        private volatile Map<String, String> authHeaders;
+        private volatile String userName;
 
         Default(Config config) {
             this.config = config;
+            this.retryInterceptor = new RetryInterceptor(config.getRetry());
         }
 
         @Override
@@ -205,139 +294,565 @@ public interface RocketExporter {
 
         @Override
         public List<RocketChatGroups.Group> listGroups() throws IOException {
-            checkAuthenticated();
-            RocketChatGroups groups = getService().getAllGroups(authHeaders).execute().body();
-            if (groups != null) {
-                return groups.getGroups();
-            } else {
-                return Collections.emptyList();
-            }
+            List<RocketChatGroups.Group> groups = new ArrayList<>();
+            forEachGroup(groups::add);
+            return groups;
         }
 
         @Override
         public List<RocketChatChannel.Channel> listChannels() throws IOException {
-            checkAuthenticated();
-            RocketChatChannel channel = getService().getAllChannels(authHeaders).execute().body();
-            if (channel != null) {
-                return channel.getChannels();
-            } else {
-                return Collections.emptyList();
-            }
+            List<RocketChatChannel.Channel> channels = new ArrayList<>();
+            forEachChannel(channels::add);
+            return channels;
         }
 
         @Override
         public List<RocketChatDm.DirectMessage> listDirectMessageChannels() throws IOException {
+            List<RocketChatDm.DirectMessage> dms = new ArrayList<>();
+            forEachDirectMessageChannel(dms::add);
+            return dms;
+        }
+
+        @Override
+        public void forEachGroup(Consumer<RocketChatGroups.Group> consumer) throws IOException {
+            forEachRoom((offset, count) -> groupsCall(getService(), offset, count), RocketChatGroups::getGroups, consumer);
+        }
+
+        @Override
+        public void forEachChannel(Consumer<RocketChatChannel.Channel> consumer) throws IOException {
+            forEachRoom((offset, count) -> channelsCall(getService(), offset, count), RocketChatChannel::getChannels, consumer);
+        }
+
+        @Override
+        public void forEachDirectMessageChannel(Consumer<RocketChatDm.DirectMessage> consumer) throws IOException {
+            forEachRoom((offset, count) -> directMessagesCall(getService(), offset, count), this::withGeneratedNames, consumer);
+        }
+
+        private <T extends Pageable, E> void forEachRoom(ListCall<T> listCall, Function<T, List<E>> rooms,
+                                                         Consumer<E> consumer) throws IOException {
             checkAuthenticated();
-            RocketChatDm channel = getService().getAllDirectMessages(authHeaders).execute().body();
+            int offset = 0;
+            while (true) {
+                T page = listCall.page(offset, config.getPageSize()).execute().body();
+                List<E> items = page != null ? rooms.apply(page) : null;
+                if (items == null) {
+                    return;
+                }
+                items.forEach(consumer);
+                offset += items.size();
+                if (!hasMoreRooms(page, items.size(), offset)) {
+                    return;
+                }
+            }
+        }
+
+        private <T extends Pageable, E> CompletableFuture<List<E>> listRoomsAsync(ListCall<T> listCall, Function<T, List<E>> rooms,
+                                                                                  int offset, List<E> result) {
+            return enqueue(listCall.page(offset, config.getPageSize()), Function.identity())
+                    .thenCompose(page -> {
+                        List<E> items = page != null ? rooms.apply(page) : null;
+                        if (items == null) {
+                            return CompletableFuture.completedFuture(result);
+                        }
+                        result.addAll(items);
+                        int nextOffset = offset + items.size();
+                        return hasMoreRooms(page, items.size(), nextOffset)
+                                ? listRoomsAsync(listCall, rooms, nextOffset, result)
+                                : CompletableFuture.completedFuture(result);
+                    });
+        }
+
+        /**
+         * Uses 'total' if the server sends it, otherwise a short page marks the end
+         */
+        private boolean hasMoreRooms(Pageable page, int pageItems, int nextOffset) {
+            if (pageItems == 0) {
+                return false;
+            } else if (page.getTotal() != null) {
+                return nextOffset < Long.parseLong(page.getTotal());
+            } else {
+                return pageItems >= config.getPageSize();
+            }
+        }
+
+        private Call<RocketChatGroups> groupsCall(RocketChatService service, int offset, int count) {
+            return service.getGroups(authHeaders, offset, count, config.isRequestOnlyUsedRoomFields() ? GROUP_FIELDS : null);
+        }
+
+        private Call<RocketChatChannel> channelsCall(RocketChatService service, int offset, int count) {
+            return service.getChannels(authHeaders, offset, count, config.isRequestOnlyUsedRoomFields() ? CHANNEL_FIELDS : null);
+        }
+
+        private Call<RocketChatDm> directMessagesCall(RocketChatService service, int offset, int count) {
+            return service.getDirectMessages(authHeaders, offset, count, config.isRequestOnlyUsedRoomFields() ? DM_FIELDS : null);
+        }
+
+        private List<RocketChatDm.DirectMessage> withGeneratedNames(RocketChatDm channel) {
             if (channel != null) {
                 return channel.getIms()
                         .stream()
-                        .peek(dm -> dm.setGeneratedName(dm.getUsernames().stream()
-                            .filter(u -> !u.equals(userName))
-                            .findFirst()
-                            .orElse(userName))) // Fallback to the user's name if we have filtered out all names (conversations with themselves)
+                        .map(this::withGeneratedName)
                         .collect(Collectors.toList());
             } else {
                 return Collections.emptyList();
             }
         }
 
+        private RocketChatDm.DirectMessage withGeneratedName(RocketChatDm.DirectMessage dm) {
+            dm.setGeneratedName(dm.getUsernames().stream()
+                    .filter(u -> !u.equals(userName))
+                    .findFirst()
+                    .orElse(userName)); // Fallback to the user's name if we have filtered out all names (conversations with themselves)
+            return dm;
+        }
+
+        @Override
+        public RoomChanges listRoomChanges(Instant updatedSince) throws IOException {
+            checkAuthenticated();
+            Response<RocketChatRooms> response = getService().getRoomChanges(authHeaders, updatedSince.toString()).execute();
+            RocketChatRooms rooms;
+
+            if (response.code() == 400 || response.code() == 404) {
+                return null;
+            } else if (response.code() == 200 && (rooms = response.body()) != null) {
+                List<RocketChatGroups.Group> groups = new ArrayList<>();
+                List<RocketChatChannel.Channel> channels = new ArrayList<>();
+                List<RocketChatDm.DirectMessage> dms = new ArrayList<>();
+                for (RocketChatRooms.Room room : rooms.getUpdate() != null ? rooms.getUpdate() : List.<RocketChatRooms.Room>of()) {
+                    if ("p".equals(room.getT())) {
+                        groups.add(room.toGroup());
+                    } else if ("c".equals(room.getT())) {
+                        channels.add(room.toChannel());
+                    } else if ("d".equals(room.getT()) && room.getUsernames() != null) {
+                        dms.add(withGeneratedName(room.toDirectMessage()));
+                    }
+                }
+                Set<String> removed = new HashSet<>();
+                if (rooms.getRemove() != null) {
+                    rooms.getRemove().forEach(room -> removed.add(room.get_id()));
+                }
+                return RoomChanges.builder()
+                        .groups(groups)
+                        .channels(channels)
+                        .directMessages(dms)
+                        .removedIds(removed)
+                        .build();
+            } else {
+                throw new IllegalStateException("error response: " + response.code());
+            }
+        }
+
         @Override
-        public List<Message> exportPrivateGroupMessages(String roomName, String roomId,
+        public ExportResult exportPrivateGroupMessages(String roomName, String roomId,
                                                         int offset, int maxMessageCount,
                                                         File out, ExportFormat exportFormat) throws IOException, TooManyRequestException {
-            return exportMessages(roomName, roomId, offset, maxMessageCount, ConversationType.GROUP, out, exportFormat);
+            return exportMessages(ExportRequest.builder()
+                    .type(ConversationType.GROUP)
+                    .roomName(roomName)
+                    .roomId(roomId)
+                    .offset(offset)
+                    .maxMessageCount(maxMessageCount)
+                    .outFile(out)
+                    .format(exportFormat)
+                    .build());
         }
 
         @Override
-        public List<Message> exportChannelMessages(String channelName, String channelId,
+        public ExportResult exportChannelMessages(String channelName, String channelId,
                                                    int offset, int maxMessageCount,
                                                    File out, ExportFormat exportFormat) throws IOException, TooManyRequestException {
-            return exportMessages(channelName, channelId, offset, maxMessageCount, ConversationType.CHANNEL, out, exportFormat);
+            return exportMessages(ExportRequest.builder()
+                    .type(ConversationType.CHANNEL)
+                    .roomName(channelName)
+                    .roomId(channelId)
+                    .offset(offset)
+                    .maxMessageCount(maxMessageCount)
+                    .outFile(out)
+                    .format(exportFormat)
+                    .build());
         }
 
         @Override
-        public List<Message> exportDirectMessages(String dmName, String dmId,
+        public ExportResult exportDirectMessages(String dmName, String dmId,
                                                   int offset, int maxMessageCount,
                                                   File out, ExportFormat exportFormat) throws IOException, TooManyRequestException {
-            return exportMessages(dmName, dmId, offset, maxMessageCount, ConversationType.DIRECT_MESSAGES, out, exportFormat);
+            return exportMessages(ExportRequest.builder()
+                    .type(ConversationType.DIRECT_MESSAGES)
+                    .roomName(dmName)
+                    .roomId(dmId)
+                    .offset(offset)
+                    .maxMessageCount(maxMessageCount)
+                    .outFile(out)
+                    .format(exportFormat)
+                    .build());
         }
 
-        private List<Message> exportMessages(String contextName, String id,
-                                             int offset, int maxMessageCount,
-                                             ConversationType conversationType, File out, ExportFormat exportFormat) throws IOException, TooManyRequestException {
+        @Override
+        public ExportResult export(ExportRequest request) throws IOException, TooManyRequestException {
+            // windows are estimated from the whole room, incremental exports only fetch the messages since the last run;
+            // journaling covers a single spool
+            if (request.getOffset() == 0 && request.getOldest() == null && !request.isResumable()
+                    && request.getRoomMessageCount() <= request.getMaxMessageCount()) {
+                List<Instant> boundaries = TimeWindows.boundaries(request.getRoomCreated(), request.getLastMessage(), request.getRoomMessageCount(),
+                        config.getMaxWindowsPerRoom(), config.getMinMessagesPerWindow());
+                if (!boundaries.isEmpty()) {
+                    return exportWindows(request, boundaries);
+                }
+            }
+            return exportMessages(request);
+        }
+
+        private ExportResult exportMessages(ExportRequest request) throws IOException, TooManyRequestException {
             checkAuthenticated();
 
+            String contextName = request.getRoomName();
+            String id = request.getRoomId();
+            int offset = request.getOffset();
+            int maxMessageCount = request.getMaxMessageCount();
+            File out = request.getOutFile();
+            Instant oldest = request.getOldest();
+            boolean append = request.isAppend();
+
+            ExportCheckpoint checkpoint = request.isResumable() ? ExportCheckpoint.load(out, id, oldest, offset, maxMessageCount) : null;
+            FetchStats stats = new FetchStats(PageSizer.of(config.getPageSizing(), config.getPageSize()), request.getFetchListener());
+
+            ExportResult result;
+            try (MessageSpool spool = checkpoint != null ? checkpoint.openSpool(contextName)
+                    : MessageSpool.create(out.getAbsoluteFile().getParentFile(), contextName)) {
+                boolean truncated = false;
+                if (checkpoint == null || !checkpoint.isWritePhase()) {
+                    truncated = fetchHistory(request.getType(), id, contextName, oldest, null, offset, maxMessageCount, spool, checkpoint, stats);
+                }
+
+                boolean appendOutput = append;
+                if (checkpoint != null && checkpoint.isWritePhase()) {
+                    // continue on the output as it was before the interrupted write
+                    checkpoint.truncateOutput(out);
+                    appendOutput = true;
+                } else if (checkpoint != null) {
+                    checkpoint.startWriting(append && out.exists() ? out.length() : 0);
+                }
+
+                try (ExportFormat.Sink sink = request.getFormat().open(out, appendOutput)) {
+                    spool.replay(sink::write);
+                }
 
-            Response<RocketChatMessageWrapperDto> response;
+                result = ExportResult.builder()
+                        .conversationName(contextName)
+                        .outFile(out)
+                        .messageCount(spool.size())
+                        .newestTimestamp(spool.newestTimestamp())
+                        .fetchedBytes(stats.bytes.get())
+                        .truncated(truncated || spool.size() >= maxMessageCount)
+                        .build();
+            } finally {
+                retryInterceptor.releaseBudget(id);
+            }
+
+            // the spool files can only be deleted once closed
+            if (checkpoint != null) {
+                checkpoint.complete();
+            }
+            return result;
+        }
+
+        /**
+         * Fetches every window concurrently into its own spool and writes them oldest first. Windows are half-open
+         * intervals [boundary, next boundary), the bounds of the history endpoints are exclusive. Every window fetches
+         * its most recent messages up to the maximum count, the oldest ones beyond the maximum of the room are skipped
+         * when writing.
+         */
+        private ExportResult exportWindows(ExportRequest request, List<Instant> boundaries) throws IOException, TooManyRequestException {
+            checkAuthenticated();
+
+            int windowCount = boundaries.size() + 1;
+            File directory = request.getOutFile().getAbsoluteFile().getParentFile();
+            FetchStats stats = new FetchStats(PageSizer.of(config.getPageSizing(), config.getPageSize()), request.getFetchListener());
+            List<MessageSpool> spools = new ArrayList<>(windowCount);
+            List<Future<?>> windows = new ArrayList<>(windowCount);
+            try {
+                for (int i = 0; i < windowCount; i++) {
+                    MessageSpool spool = MessageSpool.create(directory, request.getRoomName());
+                    spools.add(spool);
+                    Instant oldest = i == 0 ? null : boundaries.get(i - 1).minusMillis(1);
+                    Instant latest = i == windowCount - 1 ? null : boundaries.get(i);
+                    windows.add(getPrefetchExecutor().submit(() -> {
+                        fetchHistory(request.getType(), request.getRoomId(), request.getRoomName(), oldest, latest,
+                                0, request.getMaxMessageCount(), spool, null, stats);
+                        return null;
+                    }));
+                }
+                awaitAll(windows);
+
+                long fetched = spools.stream().mapToLong(MessageSpool::size).sum();
+                long messageCount = Math.min(fetched, request.getMaxMessageCount());
+                long[] skip = {fetched - messageCount};
+                Instant newestTimestamp = null;
+                try (ExportFormat.Sink sink = request.getFormat().open(request.getOutFile(), request.isAppend())) {
+                    for (MessageSpool spool : spools) {
+                        spool.replay(page -> {
+                            int from = (int) Math.min(page.size(), skip[0]);
+                            skip[0] -= from;
+                            sink.write(page.subList(from, page.size()));
+                        });
+                        if (spool.newestTimestamp() != null && (newestTimestamp == null || spool.newestTimestamp().isAfter(newestTimestamp))) {
+                            newestTimestamp = spool.newestTimestamp();
+                        }
+                    }
+                }
+
+                return ExportResult.builder()
+                        .conversationName(request.getRoomName())
+                        .outFile(request.getOutFile())
+                        .messageCount(messageCount)
+                        .newestTimestamp(newestTimestamp)
+                        .fetchedBytes(stats.bytes.get())
+                        .truncated(fetched >= request.getMaxMessageCount())
+                        .build();
+            } finally {
+                retryInterceptor.releaseBudget(request.getRoomId());
+                windows.forEach(window -> window.cancel(true));
+                for (MessageSpool spool : spools) {
+                    spool.close();
+                }
+            }
+        }
+
+        private static void awaitAll(List<Future<?>> futures) throws IOException, TooManyRequestException {
+            try {
+                for (Future<?> future : futures) {
+                    future.get();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("interrupted while waiting for history windows");
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof IOException) {
+                    throw (IOException) e.getCause();
+                } else if (e.getCause() instanceof TooManyRequestException) {
+                    throw (TooManyRequestException) e.getCause();
+                } else if (e.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException) e.getCause();
+                }
+                throw new IllegalStateException(e.getCause());
+            }
+        }
+
+        /**
+         * @return true if fetching stopped because the maximum message count was reached
+         */
+        private boolean fetchHistory(ConversationType conversationType, String id, String contextName, Instant oldest, Instant latest,
+                                  int offset, int maxMessageCount, MessageSpool spool, ExportCheckpoint checkpoint, FetchStats stats) throws IOException, TooManyRequestException {
+            String oldestParam = oldest != null ? oldest.toString() : null;
+            Instant upperBound = latest;
+            int startOffset = offset;
+            int remaining = maxMessageCount;
+            // prefetched pages are requested before the previous ones are processed, the offsets may shift further meanwhile
+            int rememberedPages = config.getPrefetchPages() + 1;
+            PageDeduplicator deduplicator = new PageDeduplicator(rememberedPages);
+            if (checkpoint != null && checkpoint.oldestTimestamp() != null) {
+                // continue below the oldest committed message, offsets shift with every message sent in the meantime;
+                // the bound is exclusive, messages of the same millisecond are dropped as duplicates of the last page
+                upperBound = checkpoint.oldestTimestamp().plusMillis(1);
+                startOffset = 0;
+                remaining = (int) Math.max(0, maxMessageCount - spool.size());
+                deduplicator = new PageDeduplicator(rememberedPages, checkpoint.recentHashes());
+            }
+
+            String latestParam = upperBound != null ? upperBound.toString() : null;
+            try (HistoryPrefetcher pages = new HistoryPrefetcher(getPrefetchExecutor(),
+                    (pageOffset, count, consumer) -> fetchHistoryPage(conversationType, id, pageOffset, count, oldestParam, latestParam, contextName, consumer, stats),
+                    startOffset, remaining, stats.pageSizer, config.getPrefetchPages())) {
+                int received = 0;
+                HistoryPrefetcher.Page page;
+                while ((page = pages.next()) != null) {
+                    for (int i = 0; i < page.size(); i++) {
+                        if (deduplicator.accept(page.id(i))) {
+                            spool.append(page.message(i));
+                        }
+                    }
+                    deduplicator.nextPage();
+                    received += page.size();
+
+                    if (checkpoint != null) {
+                        spool.commit();
+                        // the server sends the most recent messages first
+                        checkpoint.pageCommitted(spool, deduplicator, page.message(page.size() - 1).getTimestamp());
+                    } else {
+                        spool.endPage();
+                    }
+                }
+                return received >= remaining;
+            }
+        }
+
+        private int fetchHistoryPage(ConversationType conversationType, String id, int offset, int count, String oldest, String latest,
+                                     String contextName, HistoryDecoder.MessageConsumer consumer, FetchStats stats) throws IOException, TooManyRequestException {
+            Response<ResponseBody> response = historyCall(getService(), conversationType, id, offset, count, oldest, latest).execute();
+            // only the time on the wire and decoding, not the waits of the rate limiter and retries before the request was sent
+            long start = System.nanoTime() - TimeUnit.MILLISECONDS.toNanos(response.raw().receivedResponseAtMillis() - response.raw().sentRequestAtMillis());
+
+            ResponseBody messagesBody;
+            if (response.code() == 200 && (messagesBody = response.body()) != null) {
+                try (messagesBody; CountingInputStream in = new CountingInputStream(messagesBody.byteStream())) {
+                    MediaType contentType = messagesBody.contentType();
+                    int received = HistoryDecoder.decode(new InputStreamReader(in,
+                            contentType != null ? contentType.charset(StandardCharsets.UTF_8) : StandardCharsets.UTF_8), contextName, consumer);
+
+                    long latencyMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+                    stats.fetched(in.count());
+                    if (stats.pageSizer.record(count, received, latencyMs, in.count()) && config.isHttpDebugOutput()) {
+                        HttpLoggingInterceptor.Logger.DEFAULT.log("page size of '" + contextName + "' changed to " + stats.pageSizer.pageSize()
+                                + " (" + received + " messages, " + in.count() + " bytes in " + latencyMs + " ms)");
+                    }
+                    return received;
+                }
+            }
+
+            try (ResponseBody errorBody = response.errorBody()) {
+                if (response.code() == 429) {
+                    throw new TooManyRequestException(errorBody != null ? errorBody.string() : null);
+                } else {
+                    throw new IllegalStateException("error response: " + response.code());
+                }
+            }
+        }
+
+        private Call<ResponseBody> historyCall(RocketChatService service, ConversationType conversationType, String id, int offset, int count, String oldest, String latest) {
             switch (conversationType) {
                 case GROUP:
-                    response = getService().getAllMessagesFromGroup(authHeaders, id, offset, maxMessageCount).execute();
-                    break;
+                    return service.getAllMessagesFromGroup(authHeaders, id, offset, count, oldest, latest);
                 case CHANNEL:
-                    response = getService().getAllMessagesFromChannels(authHeaders, id, offset, maxMessageCount).execute();
-                    break;
+                    return service.getAllMessagesFromChannels(authHeaders, id, offset, count, oldest, latest);
                 case DIRECT_MESSAGES:
-                    response = getService().getAllMessagesFromDirectMessages(authHeaders, id, offset, maxMessageCount).execute();
-                    break;
+                    return service.getAllMessagesFromDirectMessages(authHeaders, id, offset, count, oldest, latest);
                 default:
                     throw new IllegalStateException();
             }
+        }
 
-            Map<Long, Message> normalizedMessages = new HashMap<>();
-            RocketChatMessageWrapperDto messagesBody;
+        private void checkAuthenticated() {
+            if (authHeaders == null) {
+                throw new IllegalStateException("authentication required, call login first");
+            }
+        }
 
-            if (response.code() == 200 && (messagesBody = response.body()) != null) {
-                for (RocketChatMessageWrapperDto.Message message : messagesBody.getMessages()) {
-                    Instant timestamp = Instant.parse(message.getTs());
-
-                    normalizedMessages.put(timestamp.toEpochMilli(),
-                            new Message(
-                                    message.getMsg(),
-                                    message.getU().getName(),
-                                    contextName,
-                                    timestamp
-                            ));
+        @Override
+        public AsyncRocketExporter async() {
+            return new Async();
+        }
+
+        private <T, R> CompletableFuture<R> enqueue(Call<T> call, Function<T, R> mapper) {
+            CompletableFuture<R> future = new CompletableFuture<>();
+            AtomicReference<Call<T>> current = new AtomicReference<>(call);
+            enqueue(current, mapper, future, 0);
+            future.whenComplete((r, t) -> {
+                if (future.isCancelled()) {
+                    current.get().cancel();
                 }
-            } else if (response.code() == 429) {
-                throw new TooManyRequestException(response.body());
-            } else {
-                throw new IllegalStateException("error response: " + response.code());
-            }
+            });
+            return future;
+        }
 
-            List<Message> normalizedMessagesList = new ArrayList<>(normalizedMessages.values());
-            normalizedMessagesList.sort(Comparator.comparingLong(m -> m.getTimestamp().toEpochMilli()));
+        private <T, R> void enqueue(AtomicReference<Call<T>> current, Function<T, R> mapper, CompletableFuture<R> future, int retry) {
+            current.get().enqueue(new Callback<>() {
+                @Override
+                public void onResponse(Call<T> call, Response<T> response) {
+                    if (response.code() == 200) {
+                        future.complete(mapper.apply(response.body()));
+                    } else if (RetryInterceptor.isTransient(response.code()) && retryLater(current, mapper, future, retry)) {
+                        ResponseBody errorBody = response.errorBody();
+                        if (errorBody != null) {
+                            errorBody.close();
+                        }
+                    } else if (response.code() == 429) {
+                        future.completeExceptionally(new TooManyRequestException(null));
+                    } else {
+                        future.completeExceptionally(new IllegalStateException("error response: " + response.code()));
+                    }
+                }
 
-            exportFormat.export(
-                    normalizedMessagesList,
-                    new FileOutputStream(out));
+                @Override
+                public void onFailure(Call<T> call, Throwable t) {
+                    if (!(t instanceof IOException && RetryInterceptor.isTransient((IOException) t) && retryLater(current, mapper, future, retry))) {
+                        future.completeExceptionally(t);
+                    }
+                }
+            });
+        }
 
-            return normalizedMessagesList;
+        /**
+         * Schedules the retry of a transient failure on a timer, so no dispatcher thread is blocked while waiting
+         *
+         * @return false if no retries are left
+         */
+        private <T, R> boolean retryLater(AtomicReference<Call<T>> current, Function<T, R> mapper, CompletableFuture<R> future, int retry) {
+            if (retry >= config.getRetry().getMaxRetries() || future.isDone()) {
+                return false;
+            }
+            long delay = retryInterceptor.backoff(retry, ThreadLocalRandom.current().nextDouble());
+            CompletableFuture.delayedExecutor(delay, TimeUnit.MILLISECONDS).execute(() -> {
+                if (!future.isDone()) {
+                    current.set(current.get().clone());
+                    enqueue(current, mapper, future, retry + 1);
+                }
+            });
+            return true;
         }
 
-        private void checkAuthenticated() {
-            if (authHeaders == null) {
-                throw new IllegalStateException("authentication required, call login first");
+        private synchronized ExecutorService getPrefetchExecutor() {
+            if (prefetchExecutor == null) {
+                prefetchExecutor = Executors.newCachedThreadPool(r -> {
+                    Thread thread = new Thread(r, "history-prefetch");
+                    thread.setDaemon(true);
+                    return thread;
+                });
             }
+            return prefetchExecutor;
         }
 
-        private RocketChatService getService() {
+        private synchronized RocketChatService getService() {
             if (service == null) {
-                service = new Retrofit.Builder()
-                        .baseUrl(config.getHost().toString())
-                        .addConverterFactory(ScalarsConverterFactory.create())
-                        .addConverterFactory(GsonConverterFactory.create())
-                        .client(createClient())
-                        .build().create(RocketChatService.class);
+                OkHttpClient client = createClient();
+                service = createService(client);
+                // shares pool and dispatcher, retries of async calls are scheduled by enqueue instead of blocking the dispatcher
+                OkHttpClient.Builder asyncClient = client.newBuilder();
+                asyncClient.interceptors().remove(retryInterceptor);
+                asyncService = createService(asyncClient.build());
             }
             return service;
         }
 
+        private synchronized RocketChatService getAsyncService() {
+            getService();
+            return asyncService;
+        }
+
+        private RocketChatService createService(OkHttpClient client) {
+            return new Retrofit.Builder()
+                    .baseUrl(config.getHost().toString())
+                    .addConverterFactory(ScalarsConverterFactory.create())
+                    .addConverterFactory(GsonConverterFactory.create())
+                    .client(client)
+                    .build().create(RocketChatService.class);
+        }
+
         private OkHttpClient createClient() {
+            Config.Transport transport = config.getTransport();
+
+            Dispatcher dispatcher = new Dispatcher();
+            dispatcher.setMaxRequests(transport.getMaxRequests());
+            dispatcher.setMaxRequestsPerHost(transport.getMaxRequestsPerHost());
+
             OkHttpClient.Builder builder = new OkHttpClient.Builder()
-                    .writeTimeout(30, TimeUnit.SECONDS)
-                    .readTimeout(30, TimeUnit.SECONDS)
-                    .connectTimeout(10, TimeUnit.SECONDS);
+                    .writeTimeout(transport.getWriteTimeout())
+                    .readTimeout(transport.getReadTimeout())
+                    .connectTimeout(transport.getConnectTimeout())
+                    .connectionPool(new ConnectionPool(transport.getMaxIdleConnections(), transport.getKeepAlive().toMillis(), TimeUnit.MILLISECONDS))
+                    .dispatcher(dispatcher)
+                    .protocols(transport.isHttp2() ? List.of(Protocol.HTTP_2, Protocol.HTTP_1_1) : List.of(Protocol.HTTP_1_1))
+                    .addInterceptor(retryInterceptor)
+                    .addInterceptor(rateLimitInterceptor);
             if (config.isHttpDebugOutput()) {
                 HttpLoggingInterceptor interceptor = new HttpLoggingInterceptor();
                 interceptor.setLevel(HttpLoggingInterceptor.Level.BODY);
@@ -349,5 +864,96 @@ public interface RocketExporter {
                 return builder.build();
             }
         }
+
+        /**
+         * Per room state of fetching its history, shared by all its windows
+         */
+        private static final class FetchStats {
+            private final PageSizer pageSizer;
+            private final LongConsumer listener;
+            private final AtomicLong bytes = new AtomicLong();
+
+            FetchStats(PageSizer pageSizer, LongConsumer listener) {
+                this.pageSizer = pageSizer;
+                this.listener = listener;
+            }
+
+            void fetched(long responseBytes) {
+                bytes.addAndGet(responseBytes);
+                if (listener != null) {
+                    listener.accept(responseBytes);
+                }
+            }
+        }
+
+        /**
+         * Counts the bytes read from the delegate
+         */
+        private static final class CountingInputStream extends FilterInputStream {
+            private long count;
+
+            CountingInputStream(InputStream in) {
+                super(in);
+            }
+
+            @Override
+            public int read() throws IOException {
+                int b = in.read();
+                if (b >= 0) {
+                    count++;
+                }
+                return b;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                int n = in.read(b, off, len);
+                if (n > 0) {
+                    count += n;
+                }
+                return n;
+            }
+
+            long count() {
+                return count;
+            }
+        }
+
+        @FunctionalInterface
+        private interface ListCall<T> {
+            Call<T> page(int offset, int count);
+        }
+
+        /**
+         * Async view using {@link Call#enqueue(Callback)}, shares session and client with the outer instance
+         */
+        private final class Async implements AsyncRocketExporter {
+            @Override
+            public CompletableFuture<List<RocketChatGroups.Group>> listGroups() {
+                checkAuthenticated();
+                return listRoomsAsync((offset, count) -> groupsCall(getAsyncService(), offset, count), RocketChatGroups::getGroups, 0, new ArrayList<>());
+            }
+
+            @Override
+            public CompletableFuture<List<RocketChatChannel.Channel>> listChannels() {
+                checkAuthenticated();
+                return listRoomsAsync((offset, count) -> channelsCall(getAsyncService(), offset, count), RocketChatChannel::getChannels, 0, new ArrayList<>());
+            }
+
+            @Override
+            public CompletableFuture<List<RocketChatDm.DirectMessage>> listDirectMessageChannels() {
+                checkAuthenticated();
+                return listRoomsAsync((offset, count) -> directMessagesCall(getAsyncService(), offset, count), Default.this::withGeneratedNames, 0, new ArrayList<>());
+            }
+
+            @Override
+            public Flow.Publisher<Message> messages(ConversationType type, String roomName, String roomId,
+                                                    int offset, int maxMessageCount, Instant oldest) {
+                checkAuthenticated();
+                String oldestParam = oldest != null ? oldest.toString() : null;
+                return new HistoryPublisher((pageOffset, count) -> historyCall(getAsyncService(), type, roomId, pageOffset, count, oldestParam, null),
+                        roomName, offset, maxMessageCount, config.getPageSize());
+            }
+        }
     }
 }
@@ -0,0 +1,235 @@
+package at.favre.tools.rocketexporter;
+
+import at.favre.tools.rocketexporter.dto.Conversation;
+import at.favre.tools.rocketexporter.dto.RocketChatChannel;
+import at.favre.tools.rocketexporter.dto.RocketChatDm;
+import at.favre.tools.rocketexporter.dto.RocketChatGroups;
+import at.favre.tools.rocketexporter.model.RoomChanges;
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+
+import java.io.*;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Persists the room lists of one user on one server, so subsequent runs do not need to list all rooms again.
+ * <p>
+ * Lists younger than the TTL are used as is. Older lists of groups and direct messages are revalidated with
+ * {@link RocketExporter#listRoomChanges(Instant)} which only returns rooms changed since the last validation; only if
+ * the server does not support that, the rooms are listed again. Changes are only reported for rooms the user is
+ * subscribed to, which would miss public channels the user is not a member of, so channels are always listed again
+ * once their TTL expired. Safe to be used by concurrent threads.
+ */
+public final class RoomMetadataCache {
+    /**
+     * Changes are requested a bit before the last validation so clock differences to the server do not lose updates
+     */
+    private static final Duration CLOCK_SKEW = Duration.ofMinutes(1);
+
+    private final File file;
+    private final Duration ttl;
+    private Snapshot snapshot;
+
+    private RoomMetadataCache(File file, Duration ttl, Snapshot snapshot) {
+        this.file = file;
+        this.ttl = ttl;
+        this.snapshot = snapshot;
+    }
+
+    /**
+     * Default location of the cache file in the user's home directory, unique per server and user.
+     *
+     * @param host of the server
+     * @param user name or id of the user
+     * @return file, might not exist yet
+     */
+    public static File defaultFile(URI host, String user) {
+        return new File(new File(System.getProperty("user.home"), ".rocketchat-exporter"),
+                "rooms-" + sha256Hex(host + "\n" + user).substring(0, 32) + ".json");
+    }
+
+    /**
+     * Load the cache from given file. If the file does not exist or is corrupted, the cache is empty.
+     *
+     * @param file to read and persist to
+     * @param ttl  how long lists are used without revalidation
+     * @return new instance
+     * @throws IOException if the file exists but could not be read
+     */
+    public static RoomMetadataCache load(File file, Duration ttl) throws IOException {
+        Snapshot snapshot = null;
+        if (file.isFile()) {
+            try (Reader reader = new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8)) {
+                snapshot = new Gson().fromJson(reader, Snapshot.class);
+            } catch (JsonParseException e) {
+                snapshot = null;
+            }
+        }
+        return new RoomMetadataCache(file, ttl, snapshot != null ? snapshot : new Snapshot());
+    }
+
+    /**
+     * Get all groups, either cached, revalidated or freshly listed.
+     *
+     * @param exporter logged in exporter used if the cache is stale
+     * @return groups
+     * @throws IOException on issues during the REST call
+     */
+    public synchronized List<RocketChatGroups.Group> groups(RocketExporter exporter) throws IOException {
+        return rooms(exporter, s -> s.groups, (s, section) -> s.groups = section, exporter::forEachGroup, true);
+    }
+
+    /**
+     * Get all channels, either cached, revalidated or freshly listed.
+     *
+     * @param exporter logged in exporter used if the cache is stale
+     * @return channels
+     * @throws IOException on issues during the REST call
+     */
+    public synchronized List<RocketChatChannel.Channel> channels(RocketExporter exporter) throws IOException {
+        return rooms(exporter, s -> s.channels, (s, section) -> s.channels = section, exporter::forEachChannel, false);
+    }
+
+    /**
+     * Get all direct message conversations, either cached, revalidated or freshly listed.
+     *
+     * @param exporter logged in exporter used if the cache is stale
+     * @return direct message conversations
+     * @throws IOException on issues during the REST call
+     */
+    public synchronized List<RocketChatDm.DirectMessage> directMessages(RocketExporter exporter) throws IOException {
+        return rooms(exporter, s -> s.directMessages, (s, section) -> s.directMessages = section, exporter::forEachDirectMessageChannel, true);
+    }
+
+    private <T extends Conversation> List<T> rooms(RocketExporter exporter,
+                                                   Function<Snapshot, Section<T>> getter,
+                                                   SectionSetter<T> setter,
+                                                   Lister<T> lister,
+                                                   boolean revalidatable) throws IOException {
+        Instant now = Instant.now();
+        Section<T> section = getter.apply(snapshot);
+
+        if (section != null && now.isBefore(Instant.ofEpochMilli(section.validatedAt).plus(ttl))) {
+            return new ArrayList<>(section.rooms);
+        }
+
+        if (section != null && revalidatable && revalidate(exporter, now)) {
+            return new ArrayList<>(getter.apply(snapshot).rooms);
+        }
+
+        List<T> rooms = new ArrayList<>();
+        lister.forEach(rooms::add);
+        Section<T> fresh = new Section<>();
+        fresh.validatedAt = now.minus(CLOCK_SKEW).toEpochMilli();
+        fresh.rooms = rooms;
+        setter.set(snapshot, fresh);
+        return new ArrayList<>(rooms);
+    }
+
+    /**
+     * Applies the changes since the oldest validation to the cached lists of groups and direct messages
+     *
+     * @return false if the server does not support it
+     */
+    private boolean revalidate(RocketExporter exporter, Instant now) throws IOException {
+        long since = Long.MAX_VALUE;
+        for (Section<?> section : List.of(orEmpty(snapshot.groups), orEmpty(snapshot.directMessages))) {
+            if (section.rooms != null) {
+                since = Math.min(since, section.validatedAt);
+            }
+        }
+
+        RoomChanges changes = exporter.listRoomChanges(Instant.ofEpochMilli(since));
+        if (changes == null) {
+            return false;
+        }
+
+        long validatedAt = now.minus(CLOCK_SKEW).toEpochMilli();
+        apply(snapshot.groups, changes.getGroups(), changes, validatedAt);
+        apply(snapshot.directMessages, changes.getDirectMessages(), changes, validatedAt);
+        return true;
+    }
+
+    private static <T extends Conversation> void apply(Section<T> section, List<T> updated, RoomChanges changes, long validatedAt) {
+        if (section == null) {
+            return;
+        }
+        Map<String, T> byId = new LinkedHashMap<>();
+        section.rooms.forEach(room -> byId.put(room.get_id(), room));
+        changes.getRemovedIds().forEach(byId::remove);
+        updated.forEach(room -> byId.put(room.get_id(), room));
+        section.rooms = new ArrayList<>(byId.values());
+        section.validatedAt = validatedAt;
+    }
+
+    private static Section<?> orEmpty(Section<?> section) {
+        return section != null ? section : new Section<>();
+    }
+
+    /**
+     * Write the cache to disk. The file is replaced atomically, so a crash never leaves a corrupted cache.
+     *
+     * @throws IOException if the file could not be written
+     */
+    public synchronized void save() throws IOException {
+        File parent = file.getAbsoluteFile().getParentFile();
+        if (!parent.isDirectory() && !parent.mkdirs()) {
+            throw new IOException("could not create " + parent);
+        }
+        File tempFile = File.createTempFile(file.getName(), ".tmp", parent);
+        try (Writer writer = new OutputStreamWriter(new FileOutputStream(tempFile), StandardCharsets.UTF_8)) {
+            new Gson().toJson(snapshot, writer);
+        }
+        Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    static String sha256Hex(String value) {
+        try {
+            byte[] hash = MessageDigest.getInstance("SHA-256").digest(value.getBytes(StandardCharsets.UTF_8));
+            StringBuilder sb = new StringBuilder(hash.length * 2);
+            for (byte b : hash) {
+                sb.append(String.format("%02x", b));
+            }
+            return sb.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @FunctionalInterface
+    private interface Lister<T> {
+        void forEach(Consumer<T> consumer) throws IOException;
+    }
+
+    @FunctionalInterface
+    private interface SectionSetter<T> {
+        void set(Snapshot snapshot, Section<T> section);
+    }
+
+    private static final class Snapshot {
+        private Section<RocketChatGroups.Group> groups;
+        private Section<RocketChatChannel.Channel> channels;
+        private Section<RocketChatDm.DirectMessage> directMessages;
+    }
+
+    private static final class Section<T> {
+        /**
+         * Epoch millis, changes after this time are not yet contained in the rooms
+         */
+        private long validatedAt;
+        private List<T> rooms;
+    }
+}
@@ -0,0 +1,45 @@
+package at.favre.tools.rocketexporter;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Splits the timeline of a room into windows which can be fetched concurrently with the 'oldest' and 'latest'
+ * bounds of the history endpoints.
+ * <p>
+ * The messages are assumed to be spread evenly between the creation of the room and its last message, so all
+ * windows span the same duration. The first and the last window are open ended, so messages outside the estimated
+ * timeline (e.g. sent after the room was listed) are never lost.
+ */
+final class TimeWindows {
+
+    private TimeWindows() {
+    }
+
+    /**
+     * @param from                 start of the timeline, e.g. the creation of the room, may be null
+     * @param to                   end of the timeline, e.g. the last message, may be null
+     * @param messageCount         estimated count of messages in the timeline
+     * @param maxWindows           upper bound of windows
+     * @param minMessagesPerWindow splitting smaller windows is not worth the additional requests
+     * @return the boundaries between the windows in ascending order, empty if the timeline should not be split
+     */
+    static List<Instant> boundaries(Instant from, Instant to, long messageCount, int maxWindows, long minMessagesPerWindow) {
+        if (from == null || to == null || maxWindows < 2) {
+            return List.of();
+        }
+
+        long windows = Math.min(maxWindows, messageCount / Math.max(1, minMessagesPerWindow));
+        long durationMs = to.toEpochMilli() - from.toEpochMilli();
+        if (windows < 2 || durationMs < windows) {
+            return List.of();
+        }
+
+        List<Instant> boundaries = new ArrayList<>((int) windows - 1);
+        for (long i = 1; i < windows; i++) {
+            boundaries.add(from.plusMillis(durationMs * i / windows));
+        }
+        return boundaries;
+    }
+}
@@ -0,0 +1,83 @@
+package at.favre.tools.rocketexporter;
+
+import java.time.Instant;
+
+/**
+ * Parser for the timestamps used by the Rocket Chat REST API.
+ * <p>
+ * Rocket Chat always serializes dates as UTC with millisecond precision, e.g. '2019-07-24T10:00:16.455Z'. This
+ * exact shape is parsed with plain arithmetic without any allocation, every other ISO-8601 variant falls back to
+ * {@link Instant#parse(CharSequence)}.
+ */
+final class Timestamps {
+    private static final int FIXED_LENGTH = "2019-07-24T10:00:16.455Z".length();
+    private static final int[] DAYS_IN_MONTH = {31, 29, 31, 30, 31, 30, 31, 31, 30, 31, 30, 31};
+
+    private Timestamps() {
+    }
+
+    /**
+     * Parse an ISO-8601 timestamp.
+     *
+     * @param ts to parse
+     * @return epoch millis
+     * @throws java.time.format.DateTimeParseException if not a valid ISO-8601 instant
+     */
+    static long parseEpochMillis(String ts) {
+        if (ts.length() != FIXED_LENGTH
+                || ts.charAt(4) != '-' || ts.charAt(7) != '-' || ts.charAt(10) != 'T'
+                || ts.charAt(13) != ':' || ts.charAt(16) != ':' || ts.charAt(19) != '.' || ts.charAt(23) != 'Z') {
+            return Instant.parse(ts).toEpochMilli();
+        }
+
+        int year = digits(ts, 0, 4);
+        int month = digits(ts, 5, 2);
+        int day = digits(ts, 8, 2);
+        int hour = digits(ts, 11, 2);
+        int minute = digits(ts, 14, 2);
+        int second = digits(ts, 17, 2);
+        int millis = digits(ts, 20, 3);
+
+        if (year < 0 || month < 1 || month > 12 || day < 1 || day > DAYS_IN_MONTH[month - 1]
+                || (month == 2 && day == 29 && !isLeapYear(year))
+                || hour < 0 || hour > 23 || minute < 0 || minute > 59 || second < 0 || second > 59 || millis < 0) {
+            // let the JDK parser produce a proper error
+            return Instant.parse(ts).toEpochMilli();
+        }
+
+        long epochSeconds = epochDay(year, month, day) * 86_400L + hour * 3600L + minute * 60L + second;
+        return epochSeconds * 1000L + millis;
+    }
+
+    /**
+     * @return parsed number or -1 if any char is not a digit
+     */
+    private static int digits(String s, int offset, int length) {
+        int value = 0;
+        for (int i = offset; i < offset + length; i++) {
+            int digit = s.charAt(i) - '0';
+            if (digit < 0 || digit > 9) {
+                return -1;
+            }
+            value = value * 10 + digit;
+        }
+        return value;
+    }
+
+    private static boolean isLeapYear(int year) {
+        return (year & 3) == 0 && (year % 100 != 0 || year % 400 == 0);
+    }
+
+    /**
+     * Days since 1970-01-01 of a proleptic gregorian date, see
+     * <a href="https://howardhinnant.github.io/date_algorithms.html#days_from_civil">days_from_civil</a>
+     */
+    private static long epochDay(int year, int month, int day) {
+        int y = month <= 2 ? year - 1 : year;
+        int era = Math.floorDiv(y, 400);
+        int yearOfEra = y - era * 400;
+        int dayOfYear = (153 * (month + (month > 2 ? -3 : 9)) + 2) / 5 + day - 1;
+        int dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        return era * 146_097L + dayOfEra - 719_468L;
+    }
+}
@@ -0,0 +1,138 @@
+package at.favre.tools.rocketexporter;
+
+import java.io.*;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Properties;
+
+/**
+ * Estimates how much work the export of a room is, as the bytes the server has to send: the message count of the
+ * room times the average size of its messages. The average is learned per room from finished exports and can be
+ * persisted, so later runs know which rooms are expensive. Rooms never exported before use the average of all
+ * rooms (of this run if any finished, otherwise of the persisted ones). Safe to be used by concurrent exports.
+ */
+public final class WorkEstimator {
+    /**
+     * Used until anything was learned
+     */
+    static final double DEFAULT_BYTES_PER_MESSAGE = 500;
+
+    private final File file;
+    private final Properties bytesPerMessage = new Properties();
+    private double averageBytesPerMessage = DEFAULT_BYTES_PER_MESSAGE;
+    private long totalMessages;
+    private long totalBytes;
+
+    private WorkEstimator(File file) {
+        this.file = file;
+    }
+
+    /**
+     * @return estimator which is not persisted
+     */
+    public static WorkEstimator inMemory() {
+        return new WorkEstimator(null);
+    }
+
+    /**
+     * Default location of the statistics in the user's home directory, unique per server.
+     *
+     * @param host of the server
+     * @return file, might not exist yet
+     */
+    public static File defaultFile(URI host) {
+        return new File(new File(System.getProperty("user.home"), ".rocketchat-exporter"),
+                "stats-" + RoomMetadataCache.sha256Hex(host.toString()).substring(0, 32) + ".properties");
+    }
+
+    /**
+     * Load learned statistics from given file. If the file does not exist, nothing is known yet.
+     *
+     * @param file to read and persist to
+     * @return new instance
+     * @throws IOException if the file exists but could not be read
+     */
+    public static WorkEstimator load(File file) throws IOException {
+        WorkEstimator estimator = new WorkEstimator(file);
+        if (file.isFile()) {
+            try (Reader reader = new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8)) {
+                estimator.bytesPerMessage.load(reader);
+            }
+            estimator.averageBytesPerMessage = estimator.bytesPerMessage.values().stream()
+                    .mapToDouble(value -> parse(value.toString()))
+                    .filter(value -> value > 0)
+                    .average()
+                    .orElse(DEFAULT_BYTES_PER_MESSAGE);
+        }
+        return estimator;
+    }
+
+    /**
+     * @param request to estimate
+     * @return estimated bytes to fetch, at least 1
+     */
+    public synchronized long estimate(ExportRequest request) {
+        long messages = Math.min(request.getRoomMessageCount(), request.getMaxMessageCount());
+        return Math.max(1, (long) (messages * bytesPerMessage(request.getRoomId())));
+    }
+
+    /**
+     * @param roomId of the room
+     * @return learned average size of a message of the room, the average of all rooms if not known
+     */
+    public synchronized double bytesPerMessage(String roomId) {
+        double learned = roomId != null ? parse(bytesPerMessage.getProperty(roomId)) : -1;
+        if (learned > 0) {
+            return learned;
+        }
+        return totalMessages > 0 ? (double) totalBytes / totalMessages : averageBytesPerMessage;
+    }
+
+    private static double parse(String value) {
+        try {
+            return value != null ? Double.parseDouble(value) : -1;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Learn from a finished export.
+     *
+     * @param roomId       of the room
+     * @param messageCount count of fetched messages
+     * @param bytes        size of all fetched history responses
+     */
+    public synchronized void record(String roomId, long messageCount, long bytes) {
+        if (messageCount <= 0 || bytes <= 0) {
+            return;
+        }
+        totalMessages += messageCount;
+        totalBytes += bytes;
+        if (roomId != null) {
+            bytesPerMessage.setProperty(roomId, String.valueOf(Math.round((double) bytes / messageCount)));
+        }
+    }
+
+    /**
+     * Write the statistics to disk, does nothing if not persisted. The file is replaced atomically.
+     *
+     * @throws IOException if the file could not be written
+     */
+    public synchronized void save() throws IOException {
+        if (file == null) {
+            return;
+        }
+        File parent = file.getAbsoluteFile().getParentFile();
+        if (!parent.isDirectory() && !parent.mkdirs()) {
+            throw new IOException("could not create " + parent);
+        }
+        File tempFile = File.createTempFile(file.getName(), ".tmp", parent);
+        try (Writer writer = new OutputStreamWriter(new FileOutputStream(tempFile), StandardCharsets.UTF_8)) {
+            bytesPerMessage.store(writer, "average bytes per message per room id");
+        }
+        Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+}
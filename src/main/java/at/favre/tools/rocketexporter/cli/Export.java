@@ -1,29 +1,43 @@
 package at.favre.tools.rocketexporter.cli;
 
+import at.favre.tools.rocketexporter.AsyncRocketExporter;
+import at.favre.tools.rocketexporter.BatchExporter;
 import at.favre.tools.rocketexporter.Config;
+import at.favre.tools.rocketexporter.ExportRequest;
+import at.favre.tools.rocketexporter.HighWaterMarkStore;
 import at.favre.tools.rocketexporter.RocketExporter;
-import at.favre.tools.rocketexporter.TooManyRequestException;
+import at.favre.tools.rocketexporter.RoomMetadataCache;
+import at.favre.tools.rocketexporter.WorkEstimator;
+import at.favre.tools.rocketexporter.converter.CompressedFormat;
+import at.favre.tools.rocketexporter.converter.Compression;
 import at.favre.tools.rocketexporter.converter.ExportFormat;
 import at.favre.tools.rocketexporter.converter.SlackCsvFormat;
+import at.favre.tools.rocketexporter.converter.SlackZipFormat;
 import at.favre.tools.rocketexporter.dto.Conversation;
 import at.favre.tools.rocketexporter.dto.LoginDto;
-import at.favre.tools.rocketexporter.dto.LoginResponseDto;
 import at.favre.tools.rocketexporter.dto.TokenDto;
-import at.favre.tools.rocketexporter.model.Message;
 import picocli.CommandLine;
 
 import java.io.File;
+import java.io.IOException;
 import java.io.PrintStream;
 import java.net.URL;
+import java.time.Duration;
 import java.time.Instant;
 import java.time.ZoneId;
 import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
 import java.util.stream.Collectors;
 
-@CommandLine.Command(description = "Exports rocket chat messages from a specific group/channel.",
+@CommandLine.Command(description = "Exports rocket chat messages from a specific group/channel, or with --batch from all matching conversations.",
         name = "export", mixinStandardHelpOptions = true, version = "1.0")
 class Export implements Runnable {
+    private static final String STATE_FILE_NAME = ".rocketchat-exporter-state.properties";
+    private static final String PASSWORD_ENV = "ROCKETCHAT_PASSWORD";
 
     @CommandLine.Option(names = {"-o", "--outFile"}, description = "The file or directory to write the export data to. Will write to current directory with auto generated filename if this arg is omitted. If you want to export multiple conversations you must pass a directory not a file.")
     private File file;
@@ -43,137 +57,482 @@ class Export implements Runnable {
     @CommandLine.Option(names = {"-m", "--maxMsg"}, description = "How many messages should be exported.")
     private int maxMessages = 25000;
 
+    @CommandLine.Option(names = {"--pageSize"}, description = "How many messages are fetched per request. Must not exceed the server's 'API_Upper_Count_Limit'.")
+    private int pageSize = 100;
+
+    @CommandLine.Option(names = {"--adaptivePageSize"}, negatable = true, defaultValue = "true", fallbackValue = "true",
+            description = "Tune the page size per conversation, starting with --pageSize: grow while responses are fast and small, shrink on slow or large ones. The chosen sizes are shown with --debug. Enabled by default.")
+    private boolean adaptivePageSize;
+
+    @CommandLine.Option(names = {"-p", "--parallel"}, description = "How many conversations are exported concurrently when exporting all.")
+    private int parallel = 1;
+
+    @CommandLine.Option(names = {"--windows"}, description = "Split rooms with many messages into up to this many time windows which are fetched concurrently and written in order.")
+    private int windows = 1;
+
+    @CommandLine.Option(names = {"-f", "--format"}, description = "Output format, one of ${COMPLETION-CANDIDATES}. 'slackzip' writes a Slack export archive with all selected conversations.")
+    private OutputFormat outputFormat = OutputFormat.CSV;
+
+    @CommandLine.Option(names = {"--compress"}, description = "Compress the exported files, one of ${COMPLETION-CANDIDATES}. Not used with the slackzip format.")
+    private Compression compression = Compression.NONE;
+
+    @CommandLine.Option(names = {"--compressionLevel"}, description = "Level of the compression, 1-9 for gzip and 1-17 for lz4 (slower high compression mode). Defaults to the algorithm's default.")
+    private int compressionLevel = Compression.DEFAULT_LEVEL;
+
+    @CommandLine.Option(names = {"--compressionBuffer"}, description = "Buffer and block size of the compression in KiB.")
+    private int compressionBufferKb = CompressedFormat.DEFAULT_BUFFER_SIZE / 1024;
+
+    @CommandLine.Option(names = {"--highThroughput"}, description = "Use HTTP transport settings tuned for many concurrent exports of large rooms. Can be combined with the other transport options.")
+    private boolean highThroughput;
+
+    @CommandLine.Option(names = {"--readTimeout"}, description = "HTTP read timeout in seconds.")
+    private Integer readTimeoutSec;
+
+    @CommandLine.Option(names = {"--connectTimeout"}, description = "HTTP connect timeout in seconds.")
+    private Integer connectTimeoutSec;
+
+    @CommandLine.Option(names = {"--maxIdleConnections"}, description = "How many idle HTTP connections are kept in the pool.")
+    private Integer maxIdleConnections;
+
+    @CommandLine.Option(names = {"--keepAlive"}, description = "How long idle HTTP connections are kept in the pool in seconds.")
+    private Integer keepAliveSec;
+
+    @CommandLine.Option(names = {"--maxRequestsPerHost"}, description = "Limit of concurrent async HTTP requests to the server.")
+    private Integer maxRequestsPerHost;
+
+    @CommandLine.Option(names = {"--http1"}, description = "Disable HTTP/2 and only use HTTP/1.1.")
+    private boolean http1;
+
+    @CommandLine.Option(names = {"--maxRetries"}, description = "How often a request failing with a server error, timeout or connection reset is retried with exponential backoff. 0 disables retries.")
+    private int maxRetries = 5;
+
+    @CommandLine.Option(names = {"--roomRetryBudget"}, description = "How many retries all requests of a single conversation may use together during its export.")
+    private int roomRetryBudget = 20;
+
+    @CommandLine.Option(names = {"--skipUnchanged"}, description = "Together with --incremental, skip conversations whose last message is not newer than the last export without fetching their history.")
+    private boolean skipUnchanged;
+
+    @CommandLine.Option(names = {"--roomCacheTtl"}, description = "Cache the room lists in the user's home directory and only revalidate them after this many minutes. 0 disables the cache.")
+    private int roomCacheTtlMinutes = 0;
+
+    @CommandLine.Option(names = {"--batch"}, description = {"Non-interactive mode: export all conversations of the given types matching the include/exclude patterns and print a JSON summary to STDOUT (progress goes to STDERR).",
+            "The password or token is read from the environment variable '" + PASSWORD_ENV + "' if set."})
+    private boolean batch;
+
+    @CommandLine.Option(names = {"--types"}, split = ",", description = "Conversation types to export in batch mode, any of ${COMPLETION-CANDIDATES}. Default: all.")
+    private List<RocketExporter.ConversationType> types = List.of(RocketExporter.ConversationType.values());
+
+    @CommandLine.Option(names = {"--include"}, split = ",", description = "Glob patterns ('*', '?') of conversation names to export in batch mode, case-insensitive. Default: all.")
+    private List<String> includes = new ArrayList<>();
+
+    @CommandLine.Option(names = {"--exclude"}, split = ",", description = "Glob patterns ('*', '?') of conversation names to skip in batch mode, case-insensitive.")
+    private List<String> excludes = new ArrayList<>();
+
+    @CommandLine.Option(names = {"--summary"}, description = "Write the JSON summary of batch mode to this file instead of STDOUT.")
+    private File summaryFile;
+
+    @CommandLine.Option(names = {"--config"}, description = "Properties file with default values for any option, keys are the long option names without dashes, e.g. 'types=GROUP,CHANNEL'.")
+    private File configFile;
+
+    @CommandLine.Option(names = {"--incremental"}, description = "Only export messages newer than the last run and append them to the previous output. The state is kept in '" + STATE_FILE_NAME + "' in the output directory.")
+    private boolean incremental;
+
+    @CommandLine.Option(names = {"--resume"}, description = "Journal the progress of every conversation next to its output file, so running the same command again after a failure continues where it stopped instead of starting over. Output file names do not contain a timestamp.")
+    private boolean resume;
+
     public static void main(String[] args) {
-        int exitCode = new CommandLine(new Export())
-                .setCaseInsensitiveEnumValuesAllowed(true).execute(args);
+        CommandLine commandLine = new CommandLine(new Export()).setCaseInsensitiveEnumValuesAllowed(true);
+        File config = findConfigFile(args);
+        if (config != null) {
+            commandLine.setDefaultValueProvider(new CommandLine.PropertiesDefaultProvider(config));
+        }
+        int exitCode = commandLine.execute(args);
         System.exit(exitCode);
     }
 
+    /**
+     * The config file must be known before parsing, since it provides the default values
+     */
+    static File findConfigFile(String[] args) {
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].startsWith("--config=")) {
+                return new File(args[i].substring("--config=".length()));
+            } else if (args[i].equals("--config") && i + 1 < args.length) {
+                return new File(args[i + 1]);
+            }
+        }
+        return null;
+    }
+
+    enum OutputFormat {
+        CSV, SLACKZIP
+    }
+
     @Override
     public void run() {
-        PrintStream out = System.out;
+        // in batch mode stdout is reserved for the summary
+        PrintStream out = batch ? System.err : System.out;
 
         if (username == null && userId == null) {
             out.println("You have to use a username or a token user ID to continue.");
             System.exit(-1);
         }
 
-        out.println("Please enter your RocketChat password or token:");
+        if (skipUnchanged && !incremental) {
+            out.println("--skipUnchanged can only be used together with --incremental.");
+            System.exit(-1);
+        }
 
-        String password;
-        if (System.console() != null) {
-            password = String.valueOf(System.console().readPassword());
-        } else {
-            password = new Scanner(System.in).next();
+        if ((incremental || resume) && outputFormat == OutputFormat.SLACKZIP) {
+            out.println((incremental ? "--incremental" : "--resume") + " can not be used with the " + outputFormat + " format.");
+            System.exit(-1);
         }
 
+        String password = readPassword(out);
+
         try {
             RocketExporter exporter = RocketExporter.newInstance(
                     Config.builder()
                             .host(host.toURI())
                             .httpDebugOutput(debug)
+                            .pageSize(pageSize)
+                            .maxWindowsPerRoom(windows)
+                            .pageSizing(Config.PageSizing.builder().adaptive(adaptivePageSize).build())
+                            .transport(createTransport())
+                            .retry(createRetry())
                             .build());
 
-            LoginResponseDto loginResponse;
             if (username != null && !username.isEmpty()) {
-                loginResponse = exporter.login(new LoginDto(username, password));
+                exporter.login(new LoginDto(username, password));
             } else {
-                loginResponse = exporter.tokenAuth(new TokenDto(userId, password));
+                exporter.tokenAuth(new TokenDto(userId, password));
             }
 
             out.println("Authentication successful (" + username + " or " + userId + ").");
 
-            CliOptionChooser typeChooser =
-                    new CliOptionChooser(System.in, out,
-                            List.of(
-                                    RocketExporter.ConversationType.GROUP.name,
-                                    RocketExporter.ConversationType.CHANNEL.name,
-                                    RocketExporter.ConversationType.DIRECT_MESSAGES.name),
-                            "\nWhat type do you want to export:");
-
-            ArrayList<Conversation> conversations = new ArrayList<>();
-            RocketExporter.ConversationType type = RocketExporter.ConversationType.of(typeChooser.prompt());
-
-            switch (type) {
-                case GROUP:
-                    conversations.addAll(exporter.listGroups());
-                    break;
-                case CHANNEL:
-                    conversations.addAll(exporter.listChannels());
-                    break;
-                case DIRECT_MESSAGES:
-                    conversations.addAll(exporter.listDirectMessageChannels());
-                    break;
-                default:
-                    throw new IllegalStateException();
-            }
-
-            List<Conversation> conversationSelection = new ArrayList<>();
-            conversationSelection.add(new Conversation.AllConversations());
+            RoomMetadataCache roomCache = roomCacheTtlMinutes > 0
+                    ? RoomMetadataCache.load(RoomMetadataCache.defaultFile(host.toURI(), username != null ? username : userId), Duration.ofMinutes(roomCacheTtlMinutes))
+                    : null;
 
-            List<Conversation> allConversations = conversations.stream()
-                    .filter(Objects::nonNull)
-                    .sorted(Comparator.comparing(Conversation::getName))
-                    .collect(Collectors.toList());
+            Map<RocketExporter.ConversationType, List<Conversation>> selection = batch
+                    ? selectMatching(exporter, roomCache)
+                    : selectInteractively(exporter, roomCache, out);
 
-            conversationSelection.addAll(allConversations);
+            if (roomCache != null) {
+                roomCache.save();
+            }
 
-            if (allConversations.size() == 0) {
+            if (selection.values().stream().allMatch(List::isEmpty)) {
                 out.println("Nothing found to export.");
+                if (batch) {
+                    printSummary(new ExportSummary(Instant.now()));
+                }
                 return;
             }
 
-            CliOptionChooser cliOptionChooser =
-                    new CliOptionChooser(System.in, out,
-                            conversationSelection.stream().map(Conversation::getName).collect(Collectors.toList()),
-                            "\nPlease choose the " + type.name + " you want to export:");
+            exportSelection(exporter, selection, WorkEstimator.load(WorkEstimator.defaultFile(host.toURI())), out);
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
 
-            int selection = cliOptionChooser.prompt();
-            List<Conversation> toExport = new ArrayList<>();
+    private String readPassword(PrintStream out) {
+        String fromEnv = System.getenv(PASSWORD_ENV);
+        if (batch && fromEnv != null) {
+            return fromEnv;
+        }
 
-            if (selection == 0) {
-                toExport.addAll(allConversations);
-            } else {
-                toExport.add(allConversations.get(selection));
+        out.println("Please enter your RocketChat password or token:");
+
+        if (System.console() != null) {
+            return String.valueOf(System.console().readPassword());
+        } else {
+            return new Scanner(System.in).next();
+        }
+    }
+
+    private Map<RocketExporter.ConversationType, List<Conversation>> selectInteractively(RocketExporter exporter, RoomMetadataCache roomCache, PrintStream out) throws IOException {
+        CliOptionChooser typeChooser =
+                new CliOptionChooser(System.in, out,
+                        List.of(
+                                RocketExporter.ConversationType.GROUP.name,
+                                RocketExporter.ConversationType.CHANNEL.name,
+                                RocketExporter.ConversationType.DIRECT_MESSAGES.name),
+                        "\nWhat type do you want to export:");
+
+        RocketExporter.ConversationType type = RocketExporter.ConversationType.of(typeChooser.prompt());
+
+        List<Conversation> allConversations = listConversations(exporter, type, roomCache).stream()
+                .filter(Objects::nonNull)
+                .sorted(Comparator.comparing(Conversation::getName))
+                .collect(Collectors.toList());
+
+        if (allConversations.size() == 0) {
+            return Map.of(type, allConversations);
+        }
+
+        List<Conversation> conversationSelection = new ArrayList<>();
+        conversationSelection.add(new Conversation.AllConversations());
+        conversationSelection.addAll(allConversations);
+
+        CliOptionChooser cliOptionChooser =
+                new CliOptionChooser(System.in, out,
+                        conversationSelection.stream().map(Conversation::getName).collect(Collectors.toList()),
+                        "\nPlease choose the " + type.name + " you want to export:");
+
+        int selection = cliOptionChooser.prompt();
+
+        if (selection == 0) {
+            return Map.of(type, allConversations);
+        } else {
+            return Map.of(type, List.of(allConversations.get(selection)));
+        }
+    }
+
+    /**
+     * Lists all selected types concurrently and keeps the conversations matching the include/exclude patterns
+     */
+    private Map<RocketExporter.ConversationType, List<Conversation>> selectMatching(RocketExporter exporter, RoomMetadataCache roomCache) throws Exception {
+        RoomFilter filter = new RoomFilter(includes, excludes);
+
+        Map<RocketExporter.ConversationType, CompletableFuture<List<Conversation>>> listings = new EnumMap<>(RocketExporter.ConversationType.class);
+        for (RocketExporter.ConversationType type : types) {
+            listings.put(type, listConversationsAsync(exporter, type, roomCache));
+        }
+
+        Map<RocketExporter.ConversationType, List<Conversation>> selection = new EnumMap<>(RocketExporter.ConversationType.class);
+        for (Map.Entry<RocketExporter.ConversationType, CompletableFuture<List<Conversation>>> listing : listings.entrySet()) {
+            try {
+                selection.put(listing.getKey(), listing.getValue().get().stream()
+                        .filter(Objects::nonNull)
+                        .filter(c -> filter.matches(c.getName()))
+                        .sorted(Comparator.comparing(Conversation::getName))
+                        .collect(Collectors.toList()));
+            } catch (ExecutionException e) {
+                throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
             }
+        }
+        return selection;
+    }
 
-            for (int i = 0; i < toExport.size(); i++) {
-                Conversation selectedGroup = toExport.get(i);
+    private void exportSelection(RocketExporter exporter, Map<RocketExporter.ConversationType, List<Conversation>> selection,
+                                 WorkEstimator estimator, PrintStream out) throws IOException, InterruptedException {
+        ExportSummary summary = new ExportSummary(Instant.now());
+        List<Map.Entry<RocketExporter.ConversationType, Conversation>> toExport = new ArrayList<>();
+        selection.forEach((type, conversations) -> conversations.forEach(c -> toExport.add(Map.entry(type, c))));
+
+        final ExportFormat format = outputFormat == OutputFormat.SLACKZIP ? new SlackZipFormat()
+                : new CompressedFormat(new SlackCsvFormat(), compression, compressionLevel, compressionBufferKb * 1024);
+        // all conversations of a slack export go into one archive
+        final File archive = outputFormat == OutputFormat.SLACKZIP ? generateOutputFile(file,
+                selection.size() == 1 ? selection.keySet().iterator().next().name : "workspace",
+                toExport.size() == 1 ? toExport.get(0).getValue().getName() : "all", format) : null;
+        final List<BatchExporter.Result> results;
+        try (SlackZipFormat.Workspace workspace = archive != null ? SlackZipFormat.workspace(archive) : null) {
+            final HighWaterMarkStore highWaterMarks = incremental ? HighWaterMarkStore.load(new File(outputDirectory(file), STATE_FILE_NAME)) : null;
+
+            List<ExportRequest> requests = new ArrayList<>(toExport.size());
+            for (Map.Entry<RocketExporter.ConversationType, Conversation> entry : toExport) {
+                RocketExporter.ConversationType type = entry.getKey();
+                Conversation conversation = entry.getValue();
+                if (skipUnchanged && highWaterMarks.isUpToDate(conversation.get_id(), parseLastMessage(conversation))) {
+                    summary.skipped(type, conversation);
+                    continue;
+                }
+                requests.add(ExportRequest.builder()
+                        .type(type)
+                        .roomName(conversation.getName())
+                        .roomId(conversation.get_id())
+                        .offset(0)
+                        .maxMessageCount(maxMessages)
+                        .outFile(archive != null ? archive : generateOutputFile(file, type.name, conversation.getName(), format))
+                        .format(workspace != null ? workspace : format)
+                        .oldest(highWaterMarks != null ? highWaterMarks.get(conversation.get_id()) : null)
+                        .append(incremental)
+                        .resumable(resume)
+                        .roomCreated(parseTimestamp(conversation.getTs()))
+                        .lastMessage(parseLastMessage(conversation))
+                        .roomMessageCount(parseMessageCount(conversation))
+                        .build());
+            }
 
-                final List<Message> messages;
-                final ExportFormat format = new SlackCsvFormat();
-                final int offset = 0;
-                final int maxMsg = maxMessages;
-                final File outFile = generateOutputFile(file, selectedGroup.getName(), type, format);
+            if (summary.getSkipped() > 0) {
+                out.println("Skipped " + summary.getSkipped() + " conversations without new messages.");
+            }
 
-                try {
-                    switch (type) {
-                        case GROUP:
-                            messages = exporter.exportPrivateGroupMessages(selectedGroup.getName(), selectedGroup.get_id(), offset, maxMsg, outFile, format);
-                            break;
-                        case CHANNEL:
-                            messages = exporter.exportChannelMessages(selectedGroup.getName(), selectedGroup.get_id(), offset, maxMsg, outFile, format);
-                            break;
-                        case DIRECT_MESSAGES:
-                            messages = exporter.exportDirectMessages(selectedGroup.getName(), selectedGroup.get_id(), offset, maxMsg, outFile, format);
-                            break;
-                        default:
-                            throw new IllegalStateException();
+            results = new BatchExporter(exporter, parallel, estimator, createRetry(), result -> {
+                ExportRequest request = result.getRequest();
+                if (result.isSuccessful()) {
+                    if (highWaterMarks != null && request.getOldest() != null && result.getExportResult().isTruncated()) {
+                        // advancing the mark would lose the new messages older than the exported ones
+                        out.println("More than " + maxMessages + " new messages in " + request.getType().name + " '" + request.getRoomName() + "', only the newest were exported and its export state is not advanced. Run again with a higher --maxMsg to export the older ones.");
+                    } else if (highWaterMarks != null && result.getExportResult().getNewestTimestamp() != null) {
+                        highWaterMarks.update(request.getRoomId(), result.getExportResult().getNewestTimestamp());
+                        saveState(highWaterMarks, out);
                     }
-
-                    out.println("Successfully exported " + messages.size() + " " + type.name + " messages to '" + outFile + "'");
-                } catch (TooManyRequestException e) {
-                    out.println("Too many requests. Slowing down...");
-                    Thread.sleep(5000);
-                    i--;
+                    out.println("Successfully exported " + result.getExportResult().getMessageCount() + " " + request.getType().name + " messages to '" + request.getOutFile() + "'" + formatProgress(result.getProgress()));
+                } else {
+                    out.println("Failed to export " + request.getType().name + " '" + request.getRoomName() + "': " + result.getError() + formatProgress(result.getProgress()));
                 }
+            }).exportAll(requests);
+
+            try {
+                estimator.save();
+            } catch (IOException e) {
+                out.println("Could not save export statistics: " + e.getMessage());
             }
-        } catch (Exception e) {
-            throw new RuntimeException(e);
         }
+
+        results.forEach(summary::add);
+        if (batch) {
+            printSummary(summary);
+        }
+
+        if (summary.getFailed() > 0) {
+            throw new IllegalStateException(summary.getFailed() + " of " + results.size() + " exports failed");
+        }
+    }
+
+    private void printSummary(ExportSummary summary) throws IOException {
+        summary.finish(Instant.now());
+        if (summaryFile != null) {
+            summary.write(summaryFile);
+        } else {
+            System.out.println(summary.toJson());
+        }
+    }
+
+    private CompletableFuture<List<Conversation>> listConversationsAsync(RocketExporter exporter, RocketExporter.ConversationType type, RoomMetadataCache roomCache) {
+        if (roomCache != null) {
+            return CompletableFuture.supplyAsync(() -> {
+                try {
+                    return listConversations(exporter, type, roomCache);
+                } catch (IOException e) {
+                    throw new CompletionException(e);
+                }
+            });
+        }
+
+        AsyncRocketExporter async = exporter.async();
+        switch (type) {
+            case GROUP:
+                return async.listGroups().thenApply(list -> new ArrayList<>(list));
+            case CHANNEL:
+                return async.listChannels().thenApply(list -> new ArrayList<>(list));
+            case DIRECT_MESSAGES:
+                return async.listDirectMessageChannels().thenApply(list -> new ArrayList<>(list));
+            default:
+                throw new IllegalStateException();
+        }
+    }
+
+    private List<Conversation> listConversations(RocketExporter exporter, RocketExporter.ConversationType type, RoomMetadataCache roomCache) throws IOException {
+        List<Conversation> conversations = new ArrayList<>();
+        switch (type) {
+            case GROUP:
+                if (roomCache != null) {
+                    conversations.addAll(roomCache.groups(exporter));
+                } else {
+                    exporter.forEachGroup(conversations::add);
+                }
+                break;
+            case CHANNEL:
+                if (roomCache != null) {
+                    conversations.addAll(roomCache.channels(exporter));
+                } else {
+                    exporter.forEachChannel(conversations::add);
+                }
+                break;
+            case DIRECT_MESSAGES:
+                if (roomCache != null) {
+                    conversations.addAll(roomCache.directMessages(exporter));
+                } else {
+                    exporter.forEachDirectMessageChannel(conversations::add);
+                }
+                break;
+            default:
+                throw new IllegalStateException();
+        }
+        return conversations;
+    }
+
+    private static Instant parseLastMessage(Conversation conversation) {
+        return parseTimestamp(conversation.getLm());
+    }
+
+    private static Instant parseTimestamp(String timestamp) {
+        try {
+            return timestamp != null ? Instant.parse(timestamp) : null;
+        } catch (DateTimeParseException e) {
+            return null;
+        }
+    }
+
+    private static long parseMessageCount(Conversation conversation) {
+        try {
+            return conversation.getMsgs() != null ? Long.parseLong(conversation.getMsgs()) : 0;
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    private Config.Retry createRetry() {
+        return Config.Retry.builder()
+                .maxRetries(maxRetries)
+                .roomRetryBudget(roomRetryBudget)
+                .build();
+    }
+
+    private Config.Transport createTransport() {
+        Config.Transport.TransportBuilder builder = highThroughput ? Config.Transport.highThroughput() : Config.Transport.builder();
+        if (readTimeoutSec != null) {
+            builder.readTimeout(Duration.ofSeconds(readTimeoutSec));
+        }
+        if (connectTimeoutSec != null) {
+            builder.connectTimeout(Duration.ofSeconds(connectTimeoutSec));
+        }
+        if (maxIdleConnections != null) {
+            builder.maxIdleConnections(maxIdleConnections);
+        }
+        if (keepAliveSec != null) {
+            builder.keepAlive(Duration.ofSeconds(keepAliveSec));
+        }
+        if (maxRequestsPerHost != null) {
+            builder.maxRequestsPerHost(maxRequestsPerHost);
+        }
+        if (http1) {
+            builder.http2(false);
+        }
+        return builder.build();
+    }
+
+    private static String formatProgress(BatchExporter.Progress progress) {
+        if (progress.getTotal() < 2 || progress.getFinished() == progress.getTotal()) {
+            return "";
+        }
+        long seconds = progress.getEstimatedTimeRemaining().getSeconds();
+        return String.format(" (%d/%d, about %s remaining)", progress.getFinished(), progress.getTotal(),
+                seconds >= 3600 ? String.format("%dh %02dm", seconds / 3600, seconds % 3600 / 60)
+                        : seconds >= 60 ? String.format("%dm %02ds", seconds / 60, seconds % 60)
+                        : seconds + "s");
+    }
+
+    private static void saveState(HighWaterMarkStore highWaterMarks, PrintStream out) {
+        try {
+            highWaterMarks.save();
+        } catch (IOException e) {
+            out.println("Could not save export state: " + e.getMessage());
+        }
+    }
+
+    private static File outputDirectory(File provided) {
+        if (provided == null) {
+            return new File("./");
+        }
+        return provided.isDirectory() || !provided.exists() ? provided : provided.getAbsoluteFile().getParentFile();
     }
 
-    private File generateOutputFile(File provided, String contextName, RocketExporter.ConversationType type, ExportFormat format) {
+    private File generateOutputFile(File provided, String prefix, String contextName, ExportFormat format) {
         if (provided == null) {
             provided = new File("./");
         }
@@ -183,10 +542,11 @@ class Export implements Runnable {
         }
 
         if (provided.isDirectory()) {
-            String filename = type.name.replaceAll(" ", "-") + "_" + contextName + "_" + DateTimeFormatter
+            // incremental exports append to the same file on every run, resumed exports continue the same file
+            String filename = prefix.replaceAll(" ", "-") + "_" + contextName + (incremental || resume ? "" : "_" + DateTimeFormatter
                     .ofPattern("yyyyMMddHHmmss")
                     .withZone(ZoneId.of("UTC"))
-                    .format(Instant.now()) + "." + format.fileExtension();
+                    .format(Instant.now())) + "." + format.fileExtension();
             return new File(provided, filename);
         } else {
             return provided;
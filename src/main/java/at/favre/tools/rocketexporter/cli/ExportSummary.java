@@ -0,0 +1,101 @@
+package at.favre.tools.rocketexporter.cli;
+
+import at.favre.tools.rocketexporter.BatchExporter;
+import at.favre.tools.rocketexporter.RocketExporter;
+import at.favre.tools.rocketexporter.dto.Conversation;
+import at.favre.tools.rocketexporter.model.ExportResult;
+import com.google.gson.GsonBuilder;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Machine-readable result of a batch run, serialized as JSON.
+ */
+final class ExportSummary {
+    static final String STATUS_EXPORTED = "exported";
+    static final String STATUS_FAILED = "failed";
+    static final String STATUS_SKIPPED = "skipped";
+
+    private final String startedAt;
+    private String finishedAt;
+    private long durationMs;
+    private int exported;
+    private int failed;
+    private int skipped;
+    private long messages;
+    private final List<Entry> conversations = new ArrayList<>();
+
+    ExportSummary(Instant startedAt) {
+        this.startedAt = startedAt.toString();
+    }
+
+    void skipped(RocketExporter.ConversationType type, Conversation conversation) {
+        Entry entry = new Entry(type, conversation.get_id(), conversation.getName(), STATUS_SKIPPED);
+        conversations.add(entry);
+        skipped++;
+    }
+
+    void add(BatchExporter.Result result) {
+        Entry entry = new Entry(result.getRequest().getType(), result.getRequest().getRoomId(), result.getRequest().getRoomName(),
+                result.isSuccessful() ? STATUS_EXPORTED : STATUS_FAILED);
+        entry.file = result.getRequest().getOutFile() != null ? result.getRequest().getOutFile().getPath() : null;
+
+        if (result.isSuccessful()) {
+            ExportResult exportResult = result.getExportResult();
+            entry.messages = exportResult.getMessageCount();
+            entry.newestTimestamp = exportResult.getNewestTimestamp() != null ? exportResult.getNewestTimestamp().toString() : null;
+            messages += exportResult.getMessageCount();
+            exported++;
+        } else {
+            entry.error = String.valueOf(result.getError());
+            failed++;
+        }
+        conversations.add(entry);
+    }
+
+    void finish(Instant finishedAt) {
+        this.finishedAt = finishedAt.toString();
+        this.durationMs = Duration.between(Instant.parse(startedAt), finishedAt).toMillis();
+    }
+
+    int getSkipped() {
+        return skipped;
+    }
+
+    int getFailed() {
+        return failed;
+    }
+
+    String toJson() {
+        return new GsonBuilder().setPrettyPrinting().create().toJson(this);
+    }
+
+    void write(File file) throws IOException {
+        try (Writer writer = new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8)) {
+            writer.write(toJson());
+        }
+    }
+
+    private static final class Entry {
+        private final RocketExporter.ConversationType type;
+        private final String id;
+        private final String name;
+        private final String status;
+        private String file;
+        private Long messages;
+        private String newestTimestamp;
+        private String error;
+
+        private Entry(RocketExporter.ConversationType type, String id, String name, String status) {
+            this.type = type;
+            this.id = id;
+            this.name = name;
+            this.status = status;
+        }
+    }
+}
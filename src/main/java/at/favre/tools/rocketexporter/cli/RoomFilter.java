@@ -0,0 +1,53 @@
+package at.favre.tools.rocketexporter.cli;
+
+import java.util.List;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+/**
+ * Matches conversation names against include and exclude glob patterns, where '*' matches any and '?' a single
+ * character. Matching is case-insensitive.
+ */
+final class RoomFilter {
+    private final List<Pattern> includes;
+    private final List<Pattern> excludes;
+
+    /**
+     * Create new instance
+     *
+     * @param includes if empty, all names are included
+     * @param excludes names matching any of these are excluded, even if included
+     */
+    RoomFilter(List<String> includes, List<String> excludes) {
+        this.includes = includes.stream().map(RoomFilter::glob).collect(Collectors.toList());
+        this.excludes = excludes.stream().map(RoomFilter::glob).collect(Collectors.toList());
+    }
+
+    boolean matches(String name) {
+        if (name == null) {
+            return false;
+        }
+        return (includes.isEmpty() || includes.stream().anyMatch(p -> p.matcher(name).matches()))
+                && excludes.stream().noneMatch(p -> p.matcher(name).matches());
+    }
+
+    static Pattern glob(String glob) {
+        StringBuilder regex = new StringBuilder();
+        StringBuilder literal = new StringBuilder();
+        for (char c : glob.trim().toCharArray()) {
+            if (c == '*' || c == '?') {
+                if (literal.length() > 0) {
+                    regex.append(Pattern.quote(literal.toString()));
+                    literal.setLength(0);
+                }
+                regex.append(c == '*' ? ".*" : ".");
+            } else {
+                literal.append(c);
+            }
+        }
+        if (literal.length() > 0) {
+            regex.append(Pattern.quote(literal.toString()));
+        }
+        return Pattern.compile(regex.toString(), Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE);
+    }
+}
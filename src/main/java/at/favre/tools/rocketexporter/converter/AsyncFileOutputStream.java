@@ -0,0 +1,218 @@
+package at.favre.tools.rocketexporter.converter;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Queue;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Write-behind file stream: bytes are collected in direct buffers which are written through a {@link FileChannel}
+ * on a background I/O thread, so the writing thread never waits for the disk unless all buffers are in flight.
+ * <p>
+ * {@link #close()} waits until everything is written, forces it to the storage device and closes the file, so a
+ * successfully closed stream is durable. Errors of the I/O thread are thrown by the next write or by close; the
+ * file is closed in any case. Buffers are pooled and reused by later streams.
+ */
+final class AsyncFileOutputStream extends OutputStream {
+    static final int BUFFER_SIZE = 256 * 1024;
+    private static final int BUFFER_COUNT = 3;
+    private static final int MAX_POOLED_BUFFERS = 64;
+    private static final long POLL_TIMEOUT_MS = 100;
+    private static final ByteBuffer END = ByteBuffer.allocate(0);
+    private static final Queue<ByteBuffer> POOL = new ConcurrentLinkedQueue<>();
+    private static final ExecutorService IO_EXECUTOR = Executors.newCachedThreadPool(new ThreadFactory() {
+        private final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "export-io-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    private final FileChannel channel;
+    private final BlockingQueue<ByteBuffer> full = new ArrayBlockingQueue<>(BUFFER_COUNT + 1);
+    private final BlockingQueue<ByteBuffer> free = new ArrayBlockingQueue<>(BUFFER_COUNT);
+    private final Future<?> task;
+    private volatile IOException error;
+    private ByteBuffer current;
+    private boolean closed;
+
+    /**
+     * Opens the file and starts the I/O task.
+     *
+     * @param file   to write to, created if it does not exist
+     * @param append if true, bytes are appended, otherwise the file is truncated
+     * @throws IOException if the file can not be opened
+     */
+    AsyncFileOutputStream(File file, boolean append) throws IOException {
+        this.channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                append ? StandardOpenOption.APPEND : StandardOpenOption.TRUNCATE_EXISTING);
+        for (int i = 0; i < BUFFER_COUNT - 1; i++) {
+            free.add(acquire());
+        }
+        this.current = acquire();
+        this.task = IO_EXECUTOR.submit(this::drain);
+    }
+
+    private void drain() {
+        try (FileChannel out = channel) {
+            ByteBuffer buffer;
+            while ((buffer = full.take()) != END) {
+                while (buffer.hasRemaining()) {
+                    out.write(buffer);
+                }
+                buffer.clear();
+                free.add(buffer);
+            }
+            out.force(false);
+        } catch (IOException e) {
+            error = e;
+        } catch (InterruptedException e) {
+            error = new InterruptedIOException("I/O thread was interrupted");
+        }
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        ensureOpen();
+        if (!current.hasRemaining()) {
+            handOver();
+        }
+        current.put((byte) b);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        ensureOpen();
+        while (len > 0) {
+            if (!current.hasRemaining()) {
+                handOver();
+            }
+            int n = Math.min(len, current.remaining());
+            current.put(b, off, n);
+            off += n;
+            len -= n;
+        }
+    }
+
+    /**
+     * Hands the buffered bytes to the I/O thread without waiting for them to be written.
+     */
+    @Override
+    public void flush() throws IOException {
+        ensureOpen();
+        if (current.position() > 0) {
+            handOver();
+        }
+    }
+
+    private void handOver() throws IOException {
+        current.flip();
+        put(current);
+        current = take();
+    }
+
+    private void put(ByteBuffer buffer) throws IOException {
+        try {
+            while (!full.offer(buffer, POLL_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+                checkIoTask();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while waiting for the I/O thread");
+        }
+    }
+
+    private ByteBuffer take() throws IOException {
+        try {
+            ByteBuffer buffer;
+            while ((buffer = free.poll(POLL_TIMEOUT_MS, TimeUnit.MILLISECONDS)) == null) {
+                checkIoTask();
+            }
+            return buffer;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while waiting for the I/O thread");
+        }
+    }
+
+    private void checkIoTask() throws IOException {
+        if (task.isDone()) {
+            throw new IOException("could not write file", error);
+        }
+    }
+
+    private void ensureOpen() throws IOException {
+        if (closed) {
+            throw new IOException("stream is closed");
+        }
+        if (error != null) {
+            throw new IOException("could not write file", error);
+        }
+    }
+
+    /**
+     * Writes all buffered bytes, forces them to the storage device and closes the file.
+     *
+     * @throws IOException if any write, the force or the close failed
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            if (!task.isDone()) {
+                current.flip();
+                put(current);
+                current = null;
+                put(END);
+            }
+            task.get();
+        } catch (InterruptedException e) {
+            task.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while waiting for the I/O thread");
+        } catch (ExecutionException e) {
+            throw new IOException("I/O thread failed", e.getCause());
+        } finally {
+            if (task.isDone()) {
+                release();
+            }
+            // the task already closes the channel, this only matters if it never ran
+            channel.close();
+        }
+        if (error != null) {
+            throw error;
+        }
+    }
+
+    private void release() {
+        release(current);
+        full.forEach(AsyncFileOutputStream::release);
+        free.forEach(AsyncFileOutputStream::release);
+        full.clear();
+        free.clear();
+    }
+
+    private static ByteBuffer acquire() {
+        ByteBuffer buffer = POOL.poll();
+        return buffer != null ? buffer : ByteBuffer.allocateDirect(BUFFER_SIZE);
+    }
+
+    private static void release(ByteBuffer buffer) {
+        if (buffer != null && buffer != END && buffer.capacity() == BUFFER_SIZE && POOL.size() < MAX_POOLED_BUFFERS) {
+            buffer.clear();
+            POOL.offer(buffer);
+        }
+    }
+}
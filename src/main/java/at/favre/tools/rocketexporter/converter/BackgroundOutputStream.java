@@ -0,0 +1,134 @@
+package at.favre.tools.rocketexporter.converter;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Collects written bytes into chunks and hands them to a dedicated thread which writes them to the target stream,
+ * so expensive targets like compressors do not stall the writing thread. Both are linked by a bounded queue and
+ * written chunks are reused.
+ */
+final class BackgroundOutputStream extends OutputStream {
+    private static final Chunk END = new Chunk(0);
+    private static final int DEPTH = 4;
+    private static final long OFFER_TIMEOUT_MS = 100;
+
+    private final BlockingQueue<Chunk> full = new ArrayBlockingQueue<>(DEPTH);
+    private final BlockingQueue<Chunk> free = new ArrayBlockingQueue<>(DEPTH + 2);
+    private final OutputStream target;
+    private final Thread thread;
+    private volatile IOException error;
+    private Chunk current;
+    private boolean closed;
+
+    /**
+     * Starts the writing thread immediately.
+     *
+     * @param target    to write to on the background thread, closed by {@link #close()}
+     * @param chunkSize size of the chunks handed over
+     * @param name      of the thread
+     */
+    BackgroundOutputStream(OutputStream target, int chunkSize, String name) {
+        this.target = target;
+        this.current = new Chunk(chunkSize);
+        this.thread = new Thread(this::drain, name);
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    private void drain() {
+        try (OutputStream out = target) {
+            Chunk chunk;
+            while ((chunk = full.take()) != END) {
+                out.write(chunk.data, 0, chunk.length);
+                chunk.length = 0;
+                free.offer(chunk);
+            }
+        } catch (IOException e) {
+            error = e;
+        } catch (InterruptedException e) {
+            error = new InterruptedIOException("writer was interrupted");
+        }
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        if (current.length == current.data.length) {
+            handOver();
+        }
+        current.data[current.length++] = (byte) b;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        while (len > 0) {
+            if (current.length == current.data.length) {
+                handOver();
+            }
+            int n = Math.min(len, current.data.length - current.length);
+            System.arraycopy(b, off, current.data, current.length, n);
+            current.length += n;
+            off += n;
+            len -= n;
+        }
+    }
+
+    private void handOver() throws IOException {
+        if (current.length == 0) {
+            return;
+        }
+        put(current);
+        Chunk next = free.poll();
+        current = next != null ? next : new Chunk(current.data.length);
+    }
+
+    private void put(Chunk chunk) throws IOException {
+        try {
+            while (!full.offer(chunk, OFFER_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+                if (error != null || !thread.isAlive()) {
+                    throw new IOException("background writer failed", error);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while waiting for the writer");
+        }
+    }
+
+    /**
+     * Writes all pending chunks, closes the target and waits until done.
+     *
+     * @throws IOException if the target failed at any time
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        handOver();
+        put(END);
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while waiting for the writer");
+        }
+        if (error != null) {
+            throw error;
+        }
+    }
+
+    private static final class Chunk {
+        private final byte[] data;
+        private int length;
+
+        private Chunk(int size) {
+            this.data = new byte[size];
+        }
+    }
+}
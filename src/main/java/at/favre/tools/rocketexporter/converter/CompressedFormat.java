@@ -0,0 +1,71 @@
+package at.favre.tools.rocketexporter.converter;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Compresses the output of any other format. The compression runs on its own thread, the format only copies its
+ * encoded bytes into a buffer.
+ */
+public class CompressedFormat implements ExportFormat {
+    /**
+     * Default size of the buffers handed to the compression thread and of the compressor's blocks
+     */
+    public static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+
+    private final ExportFormat format;
+    private final Compression compression;
+    private final int level;
+    private final int bufferSize;
+
+    /**
+     * Create new instance with the algorithm's default level and buffer size
+     *
+     * @param format      to compress
+     * @param compression algorithm
+     */
+    public CompressedFormat(ExportFormat format, Compression compression) {
+        this(format, compression, Compression.DEFAULT_LEVEL, DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * Create new instance
+     *
+     * @param format      to compress
+     * @param compression algorithm
+     * @param level       of the algorithm or {@link Compression#DEFAULT_LEVEL}
+     * @param bufferSize  see {@link #DEFAULT_BUFFER_SIZE}
+     */
+    public CompressedFormat(ExportFormat format, Compression compression, int level, int bufferSize) {
+        this.format = format;
+        this.compression = compression;
+        this.level = level;
+        this.bufferSize = bufferSize;
+    }
+
+    @Override
+    public Sink open(OutputStream outputStream) {
+        if (compression == Compression.NONE) {
+            return format.open(outputStream);
+        }
+        OutputStream compressed;
+        try {
+            compressed = compression.wrap(outputStream, level, bufferSize);
+        } catch (IOException e) {
+            try {
+                outputStream.close();
+            } catch (IOException suppressed) {
+                e.addSuppressed(suppressed);
+            }
+            throw new IllegalStateException("could not create " + compression + " stream", e);
+        }
+        return format.open(new BackgroundOutputStream(compressed, bufferSize, "export-" + compression.name().toLowerCase()));
+    }
+
+    @Override
+    public String fileExtension() {
+        return compression.fileExtension() != null
+                ? format.fileExtension() + "." + compression.fileExtension()
+                : format.fileExtension();
+    }
+}
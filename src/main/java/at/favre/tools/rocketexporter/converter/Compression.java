@@ -0,0 +1,82 @@
+package at.favre.tools.rocketexporter.converter;
+
+import net.jpountz.lz4.LZ4Compressor;
+import net.jpountz.lz4.LZ4Factory;
+import net.jpountz.lz4.LZ4FrameOutputStream;
+import net.jpountz.xxhash.XXHashFactory;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Compression of exported files. Both algorithms allow concatenating compressed streams, so appending to an
+ * existing file (incremental exports) results in a valid file.
+ */
+public enum Compression {
+    NONE(null) {
+        @Override
+        OutputStream wrap(OutputStream outputStream, int level, int bufferSize) {
+            return outputStream;
+        }
+    },
+    /**
+     * Deflate in the gzip container, level 1 (fastest) to 9 (smallest)
+     */
+    GZIP("gz") {
+        @Override
+        OutputStream wrap(OutputStream outputStream, int level, int bufferSize) throws IOException {
+            return new GZIPOutputStream(outputStream, bufferSize) {
+                {
+                    def.setLevel(level == DEFAULT_LEVEL ? Deflater.DEFAULT_COMPRESSION : level);
+                }
+            };
+        }
+    },
+    /**
+     * LZ4 frame format using the pure Java implementation. The default is the fast compressor, levels 1 to 17 use
+     * the slower high compression variant.
+     */
+    LZ4("lz4") {
+        @Override
+        OutputStream wrap(OutputStream outputStream, int level, int bufferSize) throws IOException {
+            LZ4Compressor compressor = level == DEFAULT_LEVEL
+                    ? LZ4Factory.safeInstance().fastCompressor()
+                    : LZ4Factory.safeInstance().highCompressor(level);
+            return new LZ4FrameOutputStream(outputStream, blockSize(bufferSize), -1L, compressor,
+                    XXHashFactory.safeInstance().hash32(), LZ4FrameOutputStream.FLG.Bits.BLOCK_INDEPENDENCE);
+        }
+
+        private LZ4FrameOutputStream.BLOCKSIZE blockSize(int bufferSize) {
+            for (LZ4FrameOutputStream.BLOCKSIZE blockSize : LZ4FrameOutputStream.BLOCKSIZE.values()) {
+                if (1 << (2 * blockSize.getIndicator() + 8) >= bufferSize) {
+                    return blockSize;
+                }
+            }
+            return LZ4FrameOutputStream.BLOCKSIZE.SIZE_4MB;
+        }
+    };
+
+    /**
+     * Use the algorithm's default level
+     */
+    public static final int DEFAULT_LEVEL = -1;
+
+    private final String fileExtension;
+
+    Compression(String fileExtension) {
+        this.fileExtension = fileExtension;
+    }
+
+    /**
+     * Extension appended to the format's extension, e.g. 'gz'
+     *
+     * @return extension or null if not compressed
+     */
+    public String fileExtension() {
+        return fileExtension;
+    }
+
+    abstract OutputStream wrap(OutputStream outputStream, int level, int bufferSize) throws IOException;
+}
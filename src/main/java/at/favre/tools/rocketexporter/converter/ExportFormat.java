@@ -2,6 +2,9 @@ package at.favre.tools.rocketexporter.converter;
 
 import at.favre.tools.rocketexporter.model.Message;
 
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
 import java.io.OutputStream;
 import java.util.List;
 
@@ -12,7 +15,43 @@ public interface ExportFormat {
      * @param messages     to export
      * @param outputStream to write to
      */
-    void export(List<Message> messages, OutputStream outputStream);
+    default void export(List<Message> messages, OutputStream outputStream) {
+        try (Sink sink = open(outputStream)) {
+            sink.write(messages);
+        } catch (IOException e) {
+            throw new IllegalStateException("could not write to stream", e);
+        }
+    }
+
+    /**
+     * Open a sink to incrementally write messages to the provided stream, oldest message first.
+     * Closing the sink will also close the stream.
+     *
+     * @param outputStream to write to
+     * @return new sink, must be closed
+     */
+    Sink open(OutputStream outputStream);
+
+    /**
+     * Open a sink writing to given file. Formats not writing to a file of their own, e.g. into a shared archive,
+     * may ignore it.
+     * <p>
+     * The file is written by a background I/O thread and forced to the storage device when the sink is closed.
+     *
+     * @param file   to write to
+     * @param append if true, the messages are appended to the existing file
+     * @return new sink, must be closed
+     * @throws IOException if the file can not be opened
+     */
+    default Sink open(File file, boolean append) throws IOException {
+        OutputStream outputStream = new AsyncFileOutputStream(file, append);
+        try {
+            return open(outputStream);
+        } catch (RuntimeException e) {
+            outputStream.close();
+            throw e;
+        }
+    }
 
     /**
      * Type of file extension, e.g. 'csv' or 'json'
@@ -20,4 +59,29 @@ public interface ExportFormat {
      * @return extension
      */
     String fileExtension();
+
+    /**
+     * Streaming consumer of messages created by {@link #open(OutputStream)}.
+     */
+    interface Sink extends Closeable {
+        /**
+         * Write a single message
+         *
+         * @param message to write
+         * @throws IOException if the underlying stream can not be written to
+         */
+        void write(Message message) throws IOException;
+
+        /**
+         * Write a batch of messages
+         *
+         * @param messages to write
+         * @throws IOException if the underlying stream can not be written to
+         */
+        default void write(List<Message> messages) throws IOException {
+            for (Message message : messages) {
+                write(message);
+            }
+        }
+    }
 }
@@ -7,42 +7,77 @@ import java.io.IOException;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.nio.charset.StandardCharsets;
-import java.util.List;
 
 public class SlackCsvFormat implements ExportFormat {
     @Override
-    public void export(List<Message> messages, OutputStream outputStream) {
-        BufferedWriter writer = null;
-        try {
-            writer = new BufferedWriter(new OutputStreamWriter(outputStream, StandardCharsets.UTF_8));
-
-            for (Message normalizedMessage : messages) {
-                String message = normalizedMessage.getMessage();
-                message = message == null ? "" : message.replaceAll("\"", "\\\\\"");
-                writer.write("\"" + normalizedMessage.getTimestamp().getEpochSecond() + "\"," +
-                        "\"" + normalizedMessage.getChannel() + "\"," +
-                        "\"" + normalizedMessage.getUsername() + "\"," +
-                        "\"" + message + "\"" +
-                        "\n");
+    public Sink open(OutputStream outputStream) {
+        return new CsvSink(new BufferedWriter(new OutputStreamWriter(outputStream, StandardCharsets.UTF_8)));
+    }
+
+    @Override
+    public String fileExtension() {
+        return "csv";
+    }
+
+    /**
+     * Writes every message as one row of quoted fields: timestamp (epoch seconds), channel, user and message.
+     * Fields are escaped while being copied to the writer, quotes and backslashes are escaped with a backslash.
+     */
+    private static final class CsvSink implements Sink {
+        private final BufferedWriter writer;
+        private final char[] numberBuffer = new char[20];
+
+        private CsvSink(BufferedWriter writer) {
+            this.writer = writer;
+        }
+
+        @Override
+        public void write(Message normalizedMessage) throws IOException {
+            writer.write('"');
+            writeNumber(normalizedMessage.getTimestamp().getEpochSecond());
+            writer.write("\",\"");
+            writeEscaped(normalizedMessage.getChannel());
+            writer.write("\",\"");
+            writeEscaped(normalizedMessage.getUsername());
+            writer.write("\",\"");
+            writeEscaped(normalizedMessage.getMessage());
+            writer.write("\"\n");
+        }
+
+        private void writeEscaped(String value) throws IOException {
+            if (value == null) {
+                return;
             }
-            writer.flush();
-            writer.close();
 
-        } catch (IOException e) {
-            throw new IllegalStateException("could not write to stream", e);
-        } finally {
-            try {
-                if (writer != null) {
-                    writer.close();
+            int start = 0;
+            for (int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+                if (c == '"' || c == '\\') {
+                    writer.write(value, start, i - start);
+                    writer.write('\\');
+                    start = i;
                 }
-            } catch (IOException ex) {
-                throw new IllegalStateException("could not close", ex);
             }
+            writer.write(value, start, value.length() - start);
         }
-    }
 
-    @Override
-    public String fileExtension() {
-        return "csv";
+        private void writeNumber(long value) throws IOException {
+            long remaining = Math.abs(value);
+            int pos = numberBuffer.length;
+            do {
+                numberBuffer[--pos] = (char) ('0' + remaining % 10);
+                remaining /= 10;
+            } while (remaining != 0);
+
+            if (value < 0) {
+                numberBuffer[--pos] = '-';
+            }
+            writer.write(numberBuffer, pos, numberBuffer.length - pos);
+        }
+
+        @Override
+        public void close() throws IOException {
+            writer.close();
+        }
     }
 }
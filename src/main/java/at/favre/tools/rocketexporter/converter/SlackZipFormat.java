@@ -0,0 +1,268 @@
+package at.favre.tools.rocketexporter.converter;
+
+import at.favre.tools.rocketexporter.model.Message;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.util.*;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Writes the layout of a Slack workspace export: a zip containing 'channels.json', 'users.json' and a
+ * '&lt;channel&gt;/&lt;yyyy-mm-dd&gt;.json' file per channel and day (UTC). Messages are streamed into the entry of
+ * their day, so only the channel and user names are kept in memory.
+ * <p>
+ * Rocket Chat does not expose Slack user ids, so the username is used as id and name.
+ * <p>
+ * {@link #open(OutputStream)} creates an archive with a single conversation, use {@link #workspace(OutputStream)}
+ * to write many conversations into one archive.
+ */
+public class SlackZipFormat implements ExportFormat {
+    @Override
+    public Sink open(OutputStream outputStream) {
+        Archive archive = new Archive(outputStream);
+        return new ConversationSink(archive, archive);
+    }
+
+    @Override
+    public String fileExtension() {
+        return "zip";
+    }
+
+    /**
+     * Create a format writing all conversations into one shared archive. Conversations may be exported concurrently,
+     * each sink holds the archive from open until close, so they are written one after another.
+     *
+     * @param outputStream to write the archive to
+     * @return workspace which must be closed after all conversations were exported
+     */
+    public static Workspace workspace(OutputStream outputStream) {
+        return new Workspace(new Archive(outputStream));
+    }
+
+    /**
+     * Create a format writing all conversations into one shared archive file, see {@link #workspace(OutputStream)}.
+     * <p>
+     * The file is written by a background I/O thread and forced to the storage device when the workspace is closed.
+     *
+     * @param file to write the archive to, replaced if it exists
+     * @return workspace which must be closed after all conversations were exported
+     * @throws IOException if the file can not be opened
+     */
+    public static Workspace workspace(File file) throws IOException {
+        return workspace(new AsyncFileOutputStream(file, false));
+    }
+
+    /**
+     * Format writing to a shared archive; the files or streams passed when opening a sink are not used.
+     */
+    public static final class Workspace implements ExportFormat, Closeable {
+        private final Archive archive;
+        private final ReentrantLock lock = new ReentrantLock();
+
+        private Workspace(Archive archive) {
+            this.archive = archive;
+        }
+
+        @Override
+        public Sink open(OutputStream outputStream) {
+            try {
+                outputStream.close();
+            } catch (IOException e) {
+                throw new IllegalStateException("could not close stream", e);
+            }
+            return open();
+        }
+
+        @Override
+        public Sink open(File file, boolean append) {
+            return open();
+        }
+
+        private Sink open() {
+            lock.lock();
+            return new ConversationSink(archive, lock::unlock);
+        }
+
+        @Override
+        public String fileExtension() {
+            return "zip";
+        }
+
+        /**
+         * Write the workspace metadata and finish the archive
+         *
+         * @throws IOException if the underlying stream can not be written to
+         */
+        @Override
+        public void close() throws IOException {
+            lock.lock();
+            try {
+                archive.close();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Writes the messages of one conversation, starting a new zip entry every time the day changes.
+     */
+    private static final class ConversationSink implements Sink {
+        private final Archive archive;
+        private final Closeable onClose;
+        private Archive.Channel channel;
+        private LocalDate currentDay;
+        private JsonWriter json;
+
+        private ConversationSink(Archive archive, Closeable onClose) {
+            this.archive = archive;
+            this.onClose = onClose;
+        }
+
+        @Override
+        public void write(Message message) throws IOException {
+            if (channel == null) {
+                channel = archive.addChannel(message.getChannel(), message.getTimestamp());
+            }
+
+            LocalDate day = LocalDate.ofInstant(message.getTimestamp(), ZoneOffset.UTC);
+            if (!day.equals(currentDay)) {
+                finishDay();
+                json = archive.startEntry(channel.folder + "/" + day + ".json");
+                json.beginArray();
+                currentDay = day;
+            }
+
+            String user = message.getUsername();
+            json.beginObject();
+            json.name("type").value("message");
+            json.name("user").value(user);
+            json.name("text").value(message.getMessage());
+            json.name("ts").value(slackTs(message.getTimestamp()));
+            json.endObject();
+
+            if (user != null) {
+                channel.members.add(user);
+                archive.users.add(user);
+            }
+        }
+
+        private void finishDay() throws IOException {
+            if (json != null) {
+                json.endArray();
+                archive.finishEntry(json);
+                json = null;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                finishDay();
+            } finally {
+                onClose.close();
+            }
+        }
+    }
+
+    /**
+     * Shared state of one zip file
+     */
+    private static final class Archive implements Closeable {
+        private final ZipOutputStream zip;
+        private final Writer writer;
+        private final Map<String, Channel> channels = new LinkedHashMap<>();
+        private final Set<String> users = new TreeSet<>();
+
+        private Archive(OutputStream outputStream) {
+            this.zip = new ZipOutputStream(new BufferedOutputStream(outputStream));
+            this.writer = new BufferedWriter(new OutputStreamWriter(zip, StandardCharsets.UTF_8));
+        }
+
+        /**
+         * Adds a channel with a unique folder name, conversations may share the same display name
+         */
+        private Channel addChannel(String name, Instant created) {
+            String base = name != null ? name.replaceAll("[/\\\\:*?\"<>|]", "_") : "unknown";
+            String folder = base;
+            for (int i = 2; channels.containsKey(folder); i++) {
+                folder = base + "-" + i;
+            }
+            Channel channel = new Channel(folder, created.getEpochSecond());
+            channels.put(folder, channel);
+            return channel;
+        }
+
+        private JsonWriter startEntry(String name) throws IOException {
+            zip.putNextEntry(new ZipEntry(name));
+            JsonWriter json = new JsonWriter(writer);
+            json.setIndent("    ");
+            return json;
+        }
+
+        private void finishEntry(JsonWriter json) throws IOException {
+            json.flush();
+            writer.flush();
+            zip.closeEntry();
+        }
+
+        @Override
+        public void close() throws IOException {
+            JsonWriter json = startEntry("channels.json");
+            json.beginArray();
+            for (Channel channel : channels.values()) {
+                json.beginObject();
+                json.name("id").value(channel.folder);
+                json.name("name").value(channel.folder);
+                json.name("created").value(channel.created);
+                json.name("members").beginArray();
+                for (String member : channel.members) {
+                    json.value(member);
+                }
+                json.endArray();
+                json.endObject();
+            }
+            json.endArray();
+            finishEntry(json);
+
+            json = startEntry("users.json");
+            json.beginArray();
+            for (String user : users) {
+                json.beginObject();
+                json.name("id").value(user);
+                json.name("name").value(user);
+                json.endObject();
+            }
+            json.endArray();
+            finishEntry(json);
+
+            writer.close();
+        }
+
+        private static final class Channel {
+            private final String folder;
+            private final long created;
+            private final Set<String> members = new TreeSet<>();
+
+            private Channel(String folder, long created) {
+                this.folder = folder;
+                this.created = created;
+            }
+        }
+    }
+
+    /**
+     * Slack message ids are the timestamp as seconds with 6 fraction digits
+     */
+    private static String slackTs(Instant timestamp) {
+        String micros = String.valueOf(timestamp.getNano() / 1000);
+        return timestamp.getEpochSecond() + "." + "000000".substring(micros.length()) + micros;
+    }
+}
@@ -5,6 +5,21 @@ public interface Conversation {
 
     String getName();
 
+    /**
+     * @return timestamp of the last message or null if unknown
+     */
+    String getLm();
+
+    /**
+     * @return timestamp of the creation of the room or null if unknown
+     */
+    String getTs();
+
+    /**
+     * @return count of messages in the room or null if unknown
+     */
+    String getMsgs();
+
     final class AllConversations implements Conversation {
         @Override
         public String get_id() {
@@ -15,5 +30,20 @@ public interface Conversation {
         public String getName() {
             return "[ALL]";
         }
+
+        @Override
+        public String getLm() {
+            return null;
+        }
+
+        @Override
+        public String getTs() {
+            return null;
+        }
+
+        @Override
+        public String getMsgs() {
+            return null;
+        }
     }
 }
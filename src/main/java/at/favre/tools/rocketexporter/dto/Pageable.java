@@ -2,8 +2,11 @@ package at.favre.tools.rocketexporter.dto;
 
 import lombok.Data;
 
+/**
+ * Paging info of list responses, offset and count refer to the returned page and total to all available items
+ */
 @Data
-class Pageable {
+public class Pageable {
     private String offset;
     private String count;
     private String total;
@@ -23,5 +23,6 @@ public class RocketChatChannel extends Pageable {
         private String msgs;
         private String _updatedAt;
         private String ts;
+        private String lm;
     }
 }
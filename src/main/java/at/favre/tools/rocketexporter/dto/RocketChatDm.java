@@ -21,6 +21,7 @@ public class RocketChatDm extends Pageable {
         private String msgs;
         private String _updatedAt;
         private String ts;
+        private String lm;
         private List<String> usernames;
         private String topic;
         private String generatedName;
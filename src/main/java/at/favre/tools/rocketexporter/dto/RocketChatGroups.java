@@ -75,5 +75,6 @@ public class RocketChatGroups extends Pageable {
         private String msgs;
         private String _updatedAt;
         private String ts;
+        private String lm;
     }
 }
@@ -0,0 +1,98 @@
+package at.favre.tools.rocketexporter.dto;
+
+import lombok.Data;
+
+import java.util.List;
+
+/**
+ * Response of rooms the user is subscribed to which changed after a given time.
+ * <p>
+ * See: <a href="https://developer.rocket.chat/reference/api/rest-api/endpoints/rooms/get">rooms.get</a>
+ * <p>
+ * Example:
+ * <pre>
+ * {
+ *     "update": [
+ *         {
+ *             "_id": "ABABABABABAABABA",
+ *             "name": "airport-random",
+ *             "fname": "airport-random",
+ *             "t": "p",
+ *             "msgs": 8,
+ *             "usersCount": 3,
+ *             "ts": "2019-01-18T22:06:23.223Z",
+ *             "_updatedAt": "2019-03-15T00:00:28.685Z",
+ *             "lm": "2019-01-23T11:30:42.789Z"
+ *         }
+ *     ],
+ *     "remove": [
+ *         {
+ *             "_id": "CDCDCDCDCDCDCDCD",
+ *             "_deletedAt": "2019-03-16T00:00:28.685Z"
+ *         }
+ *     ],
+ *     "success": true
+ * }
+ * </pre>
+ */
+@Data
+public class RocketChatRooms {
+    private List<Room> update;
+    private List<Room> remove;
+    private String success;
+
+    @Data
+    public static class Room {
+        /**
+         * 'c' channel, 'p' private group, 'd' direct message
+         */
+        private String t;
+        private String _id;
+        private String name;
+        private String fname;
+        private String usersCount;
+        private String topic;
+        private String msgs;
+        private String _updatedAt;
+        private String ts;
+        private String lm;
+        private List<String> usernames;
+
+        public RocketChatGroups.Group toGroup() {
+            RocketChatGroups.Group group = new RocketChatGroups.Group();
+            group.set_id(_id);
+            group.setName(name);
+            group.setFname(fname);
+            group.setUsersCount(usersCount);
+            group.setTopic(topic);
+            group.setMsgs(msgs);
+            group.set_updatedAt(_updatedAt);
+            group.setTs(ts);
+            group.setLm(lm);
+            return group;
+        }
+
+        public RocketChatChannel.Channel toChannel() {
+            RocketChatChannel.Channel channel = new RocketChatChannel.Channel();
+            channel.set_id(_id);
+            channel.setName(name);
+            channel.setMsgs(msgs);
+            channel.set_updatedAt(_updatedAt);
+            channel.setTs(ts);
+            channel.setLm(lm);
+            return channel;
+        }
+
+        public RocketChatDm.DirectMessage toDirectMessage() {
+            RocketChatDm.DirectMessage dm = new RocketChatDm.DirectMessage();
+            dm.set_id(_id);
+            dm.setMsgs(msgs);
+            dm.set_updatedAt(_updatedAt);
+            dm.setTs(ts);
+            dm.setLm(lm);
+            dm.setUsernames(usernames);
+            dm.setTopic(topic);
+            return dm;
+        }
+    }
+}
@@ -0,0 +1,30 @@
+package at.favre.tools.rocketexporter.model;
+
+import lombok.Builder;
+import lombok.Data;
+
+import java.io.File;
+import java.time.Instant;
+
+/**
+ * Summary of a single conversation export.
+ */
+@Data
+@Builder
+public class ExportResult {
+    private final String conversationName;
+    private final File outFile;
+    private final long messageCount;
+    /**
+     * Timestamp of the most recent exported message, null if nothing was exported
+     */
+    private final Instant newestTimestamp;
+    /**
+     * Size of all fetched history responses
+     */
+    private final long fetchedBytes;
+    /**
+     * True if the export stopped at its maximum message count, older messages than the exported ones may exist
+     */
+    private final boolean truncated;
+}
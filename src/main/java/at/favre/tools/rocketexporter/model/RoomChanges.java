@@ -0,0 +1,25 @@
+package at.favre.tools.rocketexporter.model;
+
+import at.favre.tools.rocketexporter.dto.RocketChatChannel;
+import at.favre.tools.rocketexporter.dto.RocketChatDm;
+import at.favre.tools.rocketexporter.dto.RocketChatGroups;
+import lombok.Builder;
+import lombok.Data;
+
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Rooms of the user which were created, changed or deleted after a given time.
+ */
+@Data
+@Builder
+public class RoomChanges {
+    private final List<RocketChatGroups.Group> groups;
+    private final List<RocketChatChannel.Channel> channels;
+    private final List<RocketChatDm.DirectMessage> directMessages;
+    /**
+     * Ids of deleted rooms of any type
+     */
+    private final Set<String> removedIds;
+}
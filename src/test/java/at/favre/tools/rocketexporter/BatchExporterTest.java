@@ -0,0 +1,255 @@
+package at.favre.tools.rocketexporter;
+
+import at.favre.tools.rocketexporter.converter.ExportFormat;
+import at.favre.tools.rocketexporter.dto.*;
+import at.favre.tools.rocketexporter.model.ExportResult;
+import at.favre.tools.rocketexporter.model.RoomChanges;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.junit.Assert.*;
+
+public class BatchExporterTest {
+
+    @Test
+    public void exportAllConcurrently() throws Exception {
+        int count = 8;
+        CountDownLatch allStarted = new CountDownLatch(count);
+        List<BatchExporter.Result> finished = Collections.synchronizedList(new ArrayList<>());
+
+        RocketExporter exporter = new FakeExporter() {
+            @Override
+            public ExportResult export(ExportRequest request) throws IOException {
+                allStarted.countDown();
+                try {
+                    // only completes if all exports run at the same time
+                    if (!allStarted.await(10, TimeUnit.SECONDS)) {
+                        throw new IOException("timeout");
+                    }
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+                return ExportResult.builder().conversationName(request.getRoomName()).messageCount(request.getMaxMessageCount()).build();
+            }
+        };
+
+        List<BatchExporter.Result> results = new BatchExporter(exporter, count, finished::add).exportAll(requests(count));
+
+        assertEquals(count, results.size());
+        assertEquals(count, finished.size());
+        for (int i = 0; i < count; i++) {
+            assertTrue(results.get(i).isSuccessful());
+            assertEquals("room" + i, results.get(i).getExportResult().getConversationName());
+        }
+    }
+
+    @Test
+    public void failureDoesNotAbortOthers() throws Exception {
+        RocketExporter exporter = new FakeExporter() {
+            @Override
+            public ExportResult export(ExportRequest request) throws IOException {
+                if (request.getRoomId().equals("id1")) {
+                    throw new IOException("connection reset");
+                }
+                return ExportResult.builder().conversationName(request.getRoomName()).messageCount(1).build();
+            }
+        };
+
+        List<BatchExporter.Result> results = new BatchExporter(exporter, 2, r -> {
+        }).exportAll(requests(3));
+
+        assertTrue(results.get(0).isSuccessful());
+        assertFalse(results.get(1).isSuccessful());
+        assertNotNull(results.get(1).getError());
+        assertTrue(results.get(2).isSuccessful());
+    }
+
+    @Test
+    public void largestRoomsStartFirst() throws Exception {
+        List<String> started = Collections.synchronizedList(new ArrayList<>());
+        RocketExporter exporter = new FakeExporter() {
+            @Override
+            public ExportResult export(ExportRequest request) {
+                started.add(request.getRoomName());
+                return ExportResult.builder().conversationName(request.getRoomName())
+                        .messageCount(request.getRoomMessageCount())
+                        .fetchedBytes(request.getRoomMessageCount() * 100)
+                        .build();
+            }
+        };
+
+        List<ExportRequest> requests = new ArrayList<>();
+        for (long messages : new long[]{10, 1000, 0, 100}) {
+            requests.add(ExportRequest.builder()
+                    .type(RocketExporter.ConversationType.CHANNEL)
+                    .roomName("room" + messages)
+                    .roomId("id" + messages)
+                    .maxMessageCount(25000)
+                    .roomMessageCount(messages)
+                    .build());
+        }
+
+        WorkEstimator estimator = WorkEstimator.inMemory();
+        List<BatchExporter.Result> results = new BatchExporter(exporter, 1, estimator, r -> {
+        }).exportAll(requests);
+
+        assertEquals(List.of("room1000", "room100", "room10", "room0"), started);
+        assertEquals("room10", results.get(0).getExportResult().getConversationName());
+        assertEquals(4, results.get(2).getProgress().getFinished());
+        assertEquals(100, estimator.bytesPerMessage("id1000"), 0.1);
+    }
+
+    @Test
+    public void tooManyRequestsGivesUpAfterMaxRetries() throws Exception {
+        AtomicInteger attempts = new AtomicInteger();
+        RocketExporter exporter = new FakeExporter() {
+            @Override
+            public ExportResult export(ExportRequest request) throws TooManyRequestException {
+                attempts.incrementAndGet();
+                throw new TooManyRequestException(null);
+            }
+        };
+
+        List<BatchExporter.Result> results = new BatchExporter(exporter, 1, WorkEstimator.inMemory(),
+                Config.Retry.builder().maxRetries(0).build(), r -> {
+        }).exportAll(requests(1));
+
+        assertFalse(results.get(0).isSuccessful());
+        assertTrue(results.get(0).getError() instanceof TooManyRequestException);
+        assertEquals(1, attempts.get());
+    }
+
+    @Test
+    public void remainingTimeIncludesRunningExports() throws Exception {
+        CountDownLatch bigRoomFetched = new CountDownLatch(1);
+        RocketExporter exporter = new FakeExporter() {
+            @Override
+            public ExportResult export(ExportRequest request) throws IOException {
+                try {
+                    if (request.getRoomId().equals("id1")) {
+                        // the big room fetched everything but is still running
+                        request.getFetchListener().accept(1L << 40);
+                        bigRoomFetched.countDown();
+                        Thread.sleep(200);
+                    } else if (!bigRoomFetched.await(10, TimeUnit.SECONDS)) {
+                        throw new IOException("timeout");
+                    }
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+                return ExportResult.builder().conversationName(request.getRoomName()).messageCount(1).build();
+            }
+        };
+
+        List<ExportRequest> requests = new ArrayList<>();
+        for (long messages : new long[]{10, 10000}) {
+            requests.add(ExportRequest.builder()
+                    .type(RocketExporter.ConversationType.CHANNEL)
+                    .roomName("room" + messages)
+                    .roomId(messages == 10 ? "id0" : "id1")
+                    .maxMessageCount(25000)
+                    .roomMessageCount(messages)
+                    .build());
+        }
+
+        long start = System.nanoTime();
+        List<BatchExporter.Result> results = new BatchExporter(exporter, 2, r -> {
+        }).exportAll(requests);
+        Duration elapsed = Duration.ofNanos(System.nanoTime() - start);
+
+        // the small room alone would extrapolate to about 1000 times the elapsed time
+        BatchExporter.Progress progress = results.get(0).getProgress();
+        assertEquals(1, progress.getFinished());
+        assertTrue(progress.getEstimatedTimeRemaining().toString(), progress.getEstimatedTimeRemaining().compareTo(elapsed) < 0);
+    }
+
+    private static List<ExportRequest> requests(int count) {
+        return IntStream.range(0, count).mapToObj(i -> ExportRequest.builder()
+                .type(RocketExporter.ConversationType.CHANNEL)
+                .roomName("room" + i)
+                .roomId("id" + i)
+                .maxMessageCount(i)
+                .outFile(new File("room" + i + ".csv"))
+                .build()).collect(Collectors.toList());
+    }
+
+    private abstract static class FakeExporter implements RocketExporter {
+        @Override
+        public LoginResponseDto login(LoginDto login) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public LoginResponseDto tokenAuth(TokenDto token) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public List<RocketChatGroups.Group> listGroups() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public List<RocketChatChannel.Channel> listChannels() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public List<RocketChatDm.DirectMessage> listDirectMessageChannels() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void forEachGroup(Consumer<RocketChatGroups.Group> consumer) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void forEachChannel(Consumer<RocketChatChannel.Channel> consumer) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void forEachDirectMessageChannel(Consumer<RocketChatDm.DirectMessage> consumer) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public RoomChanges listRoomChanges(Instant updatedSince) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public AsyncRocketExporter async() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public ExportResult exportPrivateGroupMessages(String roomName, String roomId, int offset, int maxMessageCount, File out, ExportFormat exportFormat) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public ExportResult exportChannelMessages(String channelName, String channelId, int offset, int maxMessageCount, File out, ExportFormat exportFormat) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public ExportResult exportDirectMessages(String dmName, String dmId, int offset, int maxMessageCount, File out, ExportFormat exportFormat) {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package at.favre.tools.rocketexporter;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.time.Instant;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class HighWaterMarkStoreTest {
+    @Rule
+    public TemporaryFolder testFolder = new TemporaryFolder();
+
+    @Test
+    public void persistAndLoad() throws Exception {
+        File file = new File(testFolder.getRoot(), "state.properties");
+        HighWaterMarkStore store = HighWaterMarkStore.load(file);
+        assertNull(store.get("room1"));
+
+        store.update("room1", Instant.ofEpochMilli(2000));
+        store.update("room1", Instant.ofEpochMilli(1000));
+        store.update("room2", Instant.ofEpochMilli(5000));
+        store.save();
+
+        HighWaterMarkStore loaded = HighWaterMarkStore.load(file);
+        assertEquals(Instant.ofEpochMilli(2000), loaded.get("room1"));
+        assertEquals(Instant.ofEpochMilli(5000), loaded.get("room2"));
+        assertNull(loaded.get("room3"));
+    }
+
+    @Test
+    public void upToDateOnlyIfLastMessageIsNotNewer() throws Exception {
+        HighWaterMarkStore store = HighWaterMarkStore.load(new File(testFolder.getRoot(), "state.properties"));
+        store.update("room1", Instant.ofEpochMilli(2000));
+
+        assertTrue(store.isUpToDate("room1", Instant.ofEpochMilli(2000)));
+        assertTrue(store.isUpToDate("room1", Instant.ofEpochMilli(1000)));
+        assertFalse(store.isUpToDate("room1", Instant.ofEpochMilli(2001)));
+        assertFalse(store.isUpToDate("room1", null));
+        assertFalse(store.isUpToDate("room2", Instant.ofEpochMilli(1000)));
+    }
+}
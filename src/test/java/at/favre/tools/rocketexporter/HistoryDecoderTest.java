@@ -0,0 +1,51 @@
+package at.favre.tools.rocketexporter;
+
+import at.favre.tools.rocketexporter.model.Message;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class HistoryDecoderTest {
+
+    @Test
+    public void decode() throws Exception {
+        String json = "{\"success\":true,\"messages\":[" +
+                "{\"_id\":\"a\",\"rid\":\"r\",\"msg\":\"hello\",\"ts\":\"2019-07-24T10:00:00.004Z\"," +
+                "\"u\":{\"_id\":\"u1\",\"username\":\"a.ason\",\"name\":\"A Ason\"},\"mentions\":[],\"reactions\":{\":+1:\":{\"usernames\":[\"x\"]}}}," +
+                "{\"_id\":\"b\",\"msg\":null,\"ts\":\"2019-07-24T10:00:00.003Z\",\"u\":null}" +
+                "]}";
+
+        List<String> ids = new ArrayList<>();
+        List<Message> messages = new ArrayList<>();
+        int count = HistoryDecoder.decode(new StringReader(json), "c1", (id, message) -> {
+            ids.add(id);
+            messages.add(message);
+        });
+
+        assertEquals(2, count);
+        assertEquals(List.of("a", "b"), ids);
+        assertEquals(new Message("hello", "A Ason", "c1", Instant.parse("2019-07-24T10:00:00.004Z")), messages.get(0));
+        assertNull(messages.get(1).getMessage());
+        assertNull(messages.get(1).getUsername());
+    }
+
+    @Test
+    public void decodeEmpty() throws Exception {
+        assertEquals(0, HistoryDecoder.decode(new StringReader("{\"messages\":[],\"success\":true}"), "c1", (id, m) -> {
+            throw new IllegalStateException();
+        }));
+    }
+
+    @Test(expected = IOException.class)
+    public void decodeMissingTimestamp() throws Exception {
+        HistoryDecoder.decode(new StringReader("{\"messages\":[{\"_id\":\"a\",\"msg\":\"x\"}]}"), "c1", (id, m) -> {
+        });
+    }
+}
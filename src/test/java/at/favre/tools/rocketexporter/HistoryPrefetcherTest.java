@@ -0,0 +1,87 @@
+package at.favre.tools.rocketexporter;
+
+import at.favre.tools.rocketexporter.model.Message;
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class HistoryPrefetcherTest {
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void fetchAllPages() throws Exception {
+        List<Integer> requestedOffsets = new ArrayList<>();
+        HistoryPrefetcher.PageFetcher fetcher = (offset, count, consumer) -> {
+            requestedOffsets.add(offset);
+            // server caps the page size at 3, 8 messages in total
+            int received = Math.max(0, Math.min(Math.min(count, 3), 8 - offset));
+            for (int i = 0; i < received; i++) {
+                consumer.accept("id" + (offset + i), new Message("m", "u", "c", Instant.EPOCH));
+            }
+            return received;
+        };
+
+        List<String> ids = new ArrayList<>();
+        try (HistoryPrefetcher prefetcher = new HistoryPrefetcher(executor, fetcher, 0, 100, 5, 2)) {
+            HistoryPrefetcher.Page page;
+            while ((page = prefetcher.next()) != null) {
+                for (int i = 0; i < page.size(); i++) {
+                    ids.add(page.id(i));
+                }
+            }
+            assertNull(prefetcher.next());
+        }
+
+        assertEquals(List.of("id0", "id1", "id2", "id3", "id4", "id5", "id6", "id7"), ids);
+        assertEquals(List.of(0, 3, 6, 8), requestedOffsets);
+    }
+
+    @Test
+    public void nextPageIsFetchedWhileCurrentIsProcessed() throws Exception {
+        CountDownLatch secondPageRequested = new CountDownLatch(1);
+        HistoryPrefetcher.PageFetcher fetcher = (offset, count, consumer) -> {
+            if (offset == 1) {
+                secondPageRequested.countDown();
+            }
+            consumer.accept("id" + offset, new Message("m", "u", "c", Instant.EPOCH));
+            return 1;
+        };
+
+        try (HistoryPrefetcher prefetcher = new HistoryPrefetcher(executor, fetcher, 0, 3, 1, 1)) {
+            assertNotNull(prefetcher.next());
+            // first page is not processed yet, but the second one is already requested
+            assertTrue(secondPageRequested.await(5, TimeUnit.SECONDS));
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void errorIsPropagated() throws Exception {
+        HistoryPrefetcher.PageFetcher fetcher = (offset, count, consumer) -> {
+            if (offset > 0) {
+                throw new IOException("timeout");
+            }
+            consumer.accept("id", new Message("m", "u", "c", Instant.EPOCH));
+            return 1;
+        };
+
+        try (HistoryPrefetcher prefetcher = new HistoryPrefetcher(executor, fetcher, 0, 10, 1, 2)) {
+            assertNotNull(prefetcher.next());
+            prefetcher.next();
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package at.favre.tools.rocketexporter;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class PageDeduplicatorTest {
+
+    @Test
+    public void duplicatesWithinAndAcrossPages() {
+        PageDeduplicator deduplicator = new PageDeduplicator(1);
+        assertTrue(deduplicator.accept("a"));
+        assertTrue(deduplicator.accept("b"));
+        assertFalse(deduplicator.accept("a"));
+        deduplicator.nextPage();
+
+        // shifted offset repeats the end of the last page
+        assertFalse(deduplicator.accept("b"));
+        assertTrue(deduplicator.accept("c"));
+        deduplicator.nextPage();
+
+        // only the previous page is remembered
+        assertTrue(deduplicator.accept("a"));
+        assertFalse(deduplicator.accept("c"));
+    }
+
+    @Test
+    public void shiftBeyondOnePageIsDetected() {
+        PageDeduplicator deduplicator = new PageDeduplicator(2);
+        assertTrue(deduplicator.accept("a"));
+        assertTrue(deduplicator.accept("b"));
+        deduplicator.nextPage();
+        assertTrue(deduplicator.accept("c"));
+        assertTrue(deduplicator.accept("d"));
+        deduplicator.nextPage();
+
+        // three new messages shifted the offsets by more than a page
+        assertFalse(deduplicator.accept("b"));
+        assertFalse(deduplicator.accept("c"));
+        deduplicator.nextPage();
+
+        // the page of a is not remembered anymore
+        assertTrue(deduplicator.accept("a"));
+    }
+
+    @Test
+    public void restoredFromRecentHashes() {
+        PageDeduplicator deduplicator = new PageDeduplicator(2);
+        deduplicator.accept("a");
+        deduplicator.nextPage();
+        deduplicator.accept("b");
+        deduplicator.nextPage();
+
+        PageDeduplicator restored = new PageDeduplicator(2, deduplicator.recentHashes());
+        assertFalse(restored.accept("a"));
+        assertFalse(restored.accept("b"));
+        assertTrue(restored.accept("c"));
+    }
+
+    @Test
+    public void messagesWithoutIdAreKept() {
+        PageDeduplicator deduplicator = new PageDeduplicator(1);
+        assertTrue(deduplicator.accept(null));
+        assertTrue(deduplicator.accept(null));
+    }
+
+    @Test
+    public void largePages() {
+        PageDeduplicator deduplicator = new PageDeduplicator(1);
+        for (int i = 0; i < 10_000; i++) {
+            assertTrue(deduplicator.accept("id" + i));
+        }
+        deduplicator.nextPage();
+        for (int i = 0; i < 10_000; i++) {
+            assertFalse(deduplicator.accept("id" + i));
+        }
+        for (int i = 10_000; i < 20_000; i++) {
+            assertTrue(deduplicator.accept("id" + i));
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package at.favre.tools.rocketexporter;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class PageSizerTest {
+
+    @Test
+    public void fixedNeverChanges() {
+        PageSizer sizer = PageSizer.fixed(100);
+        assertFalse(sizer.record(100, 100, 1, 1));
+        assertFalse(sizer.record(100, 100, 1_000_000, 1_000_000_000));
+        assertEquals(100, sizer.pageSize());
+    }
+
+    @Test
+    public void growsWhileFastAndSmall() {
+        PageSizer sizer = new PageSizer(100, 10, 1000, 5000, 1_000_000);
+        assertTrue(sizer.record(100, 100, 100, 10_000));
+        assertEquals(200, sizer.pageSize());
+        assertTrue(sizer.record(200, 200, 200, 20_000));
+        assertEquals(400, sizer.pageSize());
+        sizer.record(400, 400, 400, 40_000);
+        sizer.record(800, 800, 800, 80_000);
+        assertEquals(1000, sizer.pageSize());
+    }
+
+    @Test
+    public void growthStaysBelowTarget() {
+        PageSizer sizer = new PageSizer(100, 10, 1000, 5000, 1_000_000);
+        // 100 messages take 400kb, twice as many would come too close to the target
+        assertTrue(sizer.record(100, 100, 100, 400_000));
+        assertEquals(187, sizer.pageSize());
+        assertFalse(sizer.record(187, 187, 100, 750_000));
+        assertEquals(187, sizer.pageSize());
+    }
+
+    @Test
+    public void shrinksOnSlowOrLargeResponses() {
+        PageSizer sizer = new PageSizer(100, 10, 1000, 5000, 1_000_000);
+        assertTrue(sizer.record(100, 100, 10_000, 10_000));
+        assertEquals(50, sizer.pageSize());
+        assertTrue(sizer.record(50, 50, 100, 5_000_000));
+        assertEquals(10, sizer.pageSize());
+    }
+
+    @Test
+    public void shortPagesDoNotGrow() {
+        PageSizer sizer = new PageSizer(100, 10, 1000, 5000, 1_000_000);
+        assertFalse(sizer.record(100, 40, 10, 1000));
+        assertFalse(sizer.record(100, 0, 10, 10));
+        assertEquals(100, sizer.pageSize());
+    }
+}
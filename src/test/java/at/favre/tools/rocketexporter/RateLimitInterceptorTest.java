@@ -0,0 +1,128 @@
+package at.favre.tools.rocketexporter;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class RateLimitInterceptorTest {
+
+    @Test
+    public void unknownBudgetIsNotThrottled() {
+        RateLimitInterceptor.Bucket bucket = new RateLimitInterceptor.Bucket();
+        assertEquals(1000, bucket.acquire(1000));
+        assertEquals(1000, bucket.acquire(1000));
+    }
+
+    @Test
+    public void remainingBudgetIsSpreadOverWindow() {
+        RateLimitInterceptor.Bucket bucket = new RateLimitInterceptor.Bucket();
+        // 20 per window, 1 kept in reserve -> 10 usable for the next 10s
+        bucket.update(20, 11, 10_000, 0);
+
+        long previous = bucket.acquire(0);
+        assertEquals(0, previous);
+        for (int i = 0; i < 9; i++) {
+            long permit = bucket.acquire(0);
+            assertTrue(permit > previous);
+            assertTrue(permit < 10_000);
+            previous = permit;
+        }
+        // budget exhausted, must wait for the reset
+        assertTrue(bucket.acquire(0) >= 10_000);
+    }
+
+    @Test
+    public void drainedBucketWaitsForReset() {
+        RateLimitInterceptor.Bucket bucket = new RateLimitInterceptor.Bucket();
+        bucket.update(10, 5, 5_000, 0);
+        bucket.drain(8_000);
+        assertEquals(8_000, bucket.acquire(1_000));
+    }
+
+    @Test
+    public void windowResetRefillsBucket() {
+        RateLimitInterceptor.Bucket bucket = new RateLimitInterceptor.Bucket();
+        bucket.update(10, 1, 5_000, 0);
+        assertEquals(6_000, bucket.acquire(6_000));
+    }
+
+    @Test
+    public void concurrentCallersQueueBehindExhaustedWindow() throws Exception {
+        RateLimitInterceptor.Bucket bucket = new RateLimitInterceptor.Bucket();
+        // 10 per 10s window, 1 kept in reserve -> nothing left in this window, 9 in the next
+        bucket.update(10, 1, 10_000, 0);
+
+        ExecutorService executor = Executors.newFixedThreadPool(3);
+        try {
+            List<Future<Long>> futures = new ArrayList<>();
+            for (int i = 0; i < 3; i++) {
+                futures.add(executor.submit(() -> bucket.acquire(0)));
+            }
+            List<Long> permits = new ArrayList<>();
+            for (Future<Long> future : futures) {
+                permits.add(future.get());
+            }
+            Collections.sort(permits);
+
+            assertEquals(10_000, (long) permits.get(0));
+            assertTrue(permits.get(1) > permits.get(0));
+            assertTrue(permits.get(2) > permits.get(1));
+            assertTrue(permits.get(2) < 20_000);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void callersBeyondNextWindowWaitForTheOneAfter() {
+        RateLimitInterceptor.Bucket bucket = new RateLimitInterceptor.Bucket();
+        // 2 usable per 10s window
+        bucket.update(3, 1, 10_000, 0);
+
+        assertEquals(10_000, bucket.acquire(0));
+        assertTrue(bucket.acquire(0) < 20_000);
+        assertTrue(bucket.acquire(0) >= 20_000);
+    }
+
+    @Test
+    public void drainedBucketQueuesAllCallers() {
+        RateLimitInterceptor.Bucket bucket = new RateLimitInterceptor.Bucket();
+        bucket.update(10, 8, 5_000, 0);
+        bucket.drain(8_000);
+
+        long previous = bucket.acquire(1_000);
+        assertEquals(8_000, previous);
+        for (int i = 0; i < 3; i++) {
+            long permit = bucket.acquire(1_000);
+            assertTrue(permit > previous);
+            previous = permit;
+        }
+    }
+
+    @Test
+    public void lateResponseOfEarlierWindowIsIgnored() {
+        RateLimitInterceptor.Bucket bucket = new RateLimitInterceptor.Bucket();
+        bucket.update(10, 1, 10_000, 0);
+        assertEquals(10_000, bucket.acquire(0));
+        // response of a request sent in the first window
+        bucket.update(10, 1, 10_000, 1_000);
+        assertTrue(bucket.acquire(1_000) < 20_000);
+    }
+
+    @Test
+    public void parseReset() {
+        assertEquals(-1, RateLimitInterceptor.parseReset(null, 0));
+        assertEquals(-1, RateLimitInterceptor.parseReset("abc", 0));
+        assertEquals(1_569_000_000_000L, RateLimitInterceptor.parseReset("1569000000000", 0));
+        assertEquals(1_569_000_000_000L, RateLimitInterceptor.parseReset("1569000000", 0));
+        assertEquals(61_000, RateLimitInterceptor.parseReset("60", 1_000));
+    }
+}
@@ -0,0 +1,72 @@
+package at.favre.tools.rocketexporter;
+
+import org.junit.Test;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.time.Duration;
+
+import static org.junit.Assert.*;
+
+public class RetryInterceptorTest {
+
+    @Test
+    public void backoffGrowsExponentiallyUpToCap() {
+        RetryInterceptor interceptor = new RetryInterceptor(Config.Retry.builder()
+                .baseDelay(Duration.ofMillis(100))
+                .maxDelay(Duration.ofMillis(1000))
+                .build());
+
+        assertEquals(50, interceptor.backoff(0, 0));
+        assertEquals(99, interceptor.backoff(0, 0.999));
+        assertEquals(200, interceptor.backoff(2, 0));
+        assertEquals(500, interceptor.backoff(4, 0));
+        assertEquals(500, interceptor.backoff(40, 0));
+        assertTrue(interceptor.backoff(40, 0.999) < 1000);
+    }
+
+    @Test
+    public void circuitOpensAfterConsecutiveFailures() {
+        RetryInterceptor.CircuitBreaker breaker = new RetryInterceptor.CircuitBreaker(3, 1000);
+        assertFalse(breaker.failure(0));
+        assertFalse(breaker.failure(0));
+        breaker.success();
+        assertFalse(breaker.failure(0));
+        assertFalse(breaker.failure(0));
+        assertTrue(breaker.failure(10));
+        assertEquals(1010, breaker.permitAt());
+
+        // failures of requests still in flight do not extend the pause
+        assertFalse(breaker.failure(20));
+        assertEquals(1010, breaker.permitAt());
+
+        // the probe after the pause fails, open again
+        assertTrue(breaker.failure(1010));
+        assertEquals(2010, breaker.permitAt());
+    }
+
+    @Test
+    public void transientFailures() {
+        assertTrue(RetryInterceptor.isTransient(500));
+        assertTrue(RetryInterceptor.isTransient(502));
+        assertTrue(RetryInterceptor.isTransient(503));
+        assertTrue(RetryInterceptor.isTransient(504));
+        assertFalse(RetryInterceptor.isTransient(501));
+        assertFalse(RetryInterceptor.isTransient(404));
+        assertFalse(RetryInterceptor.isTransient(429));
+
+        assertTrue(RetryInterceptor.isTransient(new SocketTimeoutException()));
+        assertTrue(RetryInterceptor.isTransient(new SocketException("Connection reset")));
+        assertTrue(RetryInterceptor.isTransient(new IOException("unexpected end of stream", new EOFException())));
+        assertFalse(RetryInterceptor.isTransient(new IOException("Canceled")));
+    }
+
+    @Test
+    public void parseRetryAfter() {
+        assertEquals(-1, RetryInterceptor.parseRetryAfter(null));
+        assertEquals(-1, RetryInterceptor.parseRetryAfter("Wed, 21 Oct 2015 07:28:00 GMT"));
+        assertEquals(5000, RetryInterceptor.parseRetryAfter("5"));
+    }
+}
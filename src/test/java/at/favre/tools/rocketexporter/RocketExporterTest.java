@@ -1,7 +1,9 @@
 package at.favre.tools.rocketexporter;
 
+import at.favre.tools.rocketexporter.converter.ExportFormat;
 import at.favre.tools.rocketexporter.converter.SlackCsvFormat;
 import at.favre.tools.rocketexporter.dto.*;
+import at.favre.tools.rocketexporter.model.ExportResult;
 import at.favre.tools.rocketexporter.model.Message;
 import com.github.tomakehurst.wiremock.junit.WireMockRule;
 import org.junit.Before;
@@ -10,11 +12,20 @@ import org.junit.Test;
 import org.junit.rules.TemporaryFolder;
 
 import java.io.File;
+import java.io.OutputStream;
 import java.net.URI;
+import java.nio.file.Files;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
 
 import static com.github.tomakehurst.wiremock.client.WireMock.*;
 import static com.github.tomakehurst.wiremock.core.WireMockConfiguration.options;
+import static com.github.tomakehurst.wiremock.stubbing.Scenario.STARTED;
 import static junit.framework.TestCase.*;
 
 public class RocketExporterTest {
@@ -40,6 +51,8 @@ public class RocketExporterTest {
     }
 
     private void setupMockServer() {
+        stubEmptyHistoryPages();
+
         wireMockRule.stubFor(get(urlPathEqualTo("/test")).willReturn(ok("works")));
 
         wireMockRule.stubFor(post(urlPathEqualTo("/api/v1/login"))
@@ -53,6 +66,7 @@ public class RocketExporterTest {
                         .withBodyFile("mock/example_groups.json")));
 
         wireMockRule.stubFor(get(urlPathEqualTo("/api/v1/groups.history"))
+                .withQueryParam("offset", equalTo("0"))
                 .willReturn(ok()
                         .withHeader("Content-Type", "application/json")
                         .withBodyFile("mock/example_group_history.json")));
@@ -63,6 +77,7 @@ public class RocketExporterTest {
                         .withBodyFile("mock/example_channels.json")));
 
         wireMockRule.stubFor(get(urlPathEqualTo("/api/v1/channels.history"))
+                .withQueryParam("offset", equalTo("0"))
                 .willReturn(ok()
                         .withHeader("Content-Type", "application/json")
                         .withBodyFile("mock/example_channel_history.json")));
@@ -73,11 +88,18 @@ public class RocketExporterTest {
                         .withBodyFile("mock/example_dms.json")));
 
         wireMockRule.stubFor(get(urlPathEqualTo("/api/v1/im.history"))
+                .withQueryParam("offset", equalTo("0"))
                 .willReturn(ok()
                         .withHeader("Content-Type", "application/json")
                         .withBodyFile("mock/example_dm_history.json")));
     }
 
+    private void stubEmptyHistoryPages() {
+        wireMockRule.stubFor(get(urlPathMatching("/api/v1/(groups|channels|im).history"))
+                .atPriority(10)
+                .willReturn(okJson("{\"messages\":[],\"success\":true}")));
+    }
+
     @Test
     public void login() throws Exception {
         LoginResponseDto dto = exporter.login(new LoginDto("user", "password"));
@@ -112,12 +134,38 @@ public class RocketExporterTest {
     }
 
 
+    @Test
+    public void listChannelsInPages() throws Exception {
+        exporter = RocketExporter.newInstance(
+                Config.builder()
+                        .host(URI.create("http://localhost:" + PORT))
+                        .pageSize(2)
+                        .requestOnlyUsedRoomFields(true)
+                        .build());
+        wireMockRule.stubFor(get(urlPathEqualTo("/api/v1/channels.list"))
+                .withQueryParam("offset", equalTo("0"))
+                .willReturn(okJson("{\"channels\":[{\"_id\":\"1\",\"name\":\"a\"},{\"_id\":\"2\",\"name\":\"b\"}],\"offset\":0,\"count\":2,\"total\":3,\"success\":true}")));
+        wireMockRule.stubFor(get(urlPathEqualTo("/api/v1/channels.list"))
+                .withQueryParam("offset", equalTo("2"))
+                .willReturn(okJson("{\"channels\":[{\"_id\":\"3\",\"name\":\"c\"}],\"offset\":2,\"count\":1,\"total\":3,\"success\":true}")));
+
+        login();
+        List<String> names = new ArrayList<>();
+        exporter.forEachChannel(c -> names.add(c.getName()));
+        assertEquals(List.of("a", "b", "c"), names);
+        assertEquals(3, exporter.async().listChannels().get(10, TimeUnit.SECONDS).size());
+        wireMockRule.verify(4, getRequestedFor(urlPathEqualTo("/api/v1/channels.list"))
+                .withQueryParam("count", equalTo("2"))
+                .withQueryParam("fields", containing("msgs")));
+    }
+
     @Test
     public void exportPrivateGroupMessages() throws Exception {
         login();
         File tempFile = testFolder.newFile("out-test-group.csv");
-        List<Message> msg = exporter.exportPrivateGroupMessages("roomName", "roomId", 0, 2000, tempFile, new SlackCsvFormat());
-        assertEquals(48, msg.size());
+        ExportResult result = exporter.exportPrivateGroupMessages("roomName", "roomId", 0, 2000, tempFile, new SlackCsvFormat());
+        // contains 3 distinct messages sharing the same millisecond
+        assertEquals(50, result.getMessageCount());
         assertTrue(tempFile.exists() && tempFile.isFile() && tempFile.length() > 0);
     }
 
@@ -125,8 +173,8 @@ public class RocketExporterTest {
     public void exportChannelMessages() throws Exception {
         login();
         File tempFile = testFolder.newFile("out-test-channel.csv");
-        List<Message> msg = exporter.exportChannelMessages("roomName", "roomId", 0, 2000, tempFile, new SlackCsvFormat());
-        assertEquals(3, msg.size());
+        ExportResult result = exporter.exportChannelMessages("roomName", "roomId", 0, 2000, tempFile, new SlackCsvFormat());
+        assertEquals(3, result.getMessageCount());
         assertTrue(tempFile.exists() && tempFile.isFile() && tempFile.length() > 0);
     }
 
@@ -134,8 +182,535 @@ public class RocketExporterTest {
     public void exportDms() throws Exception {
         login();
         File tempFile = testFolder.newFile("out-test-dm.csv");
-        List<Message> msg = exporter.exportDirectMessages("roomName", "roomId", 0, 2000, tempFile, new SlackCsvFormat());
-        assertEquals(2, msg.size());
+        ExportResult result = exporter.exportDirectMessages("roomName", "roomId", 0, 2000, tempFile, new SlackCsvFormat());
+        assertEquals(2, result.getMessageCount());
         assertTrue(tempFile.exists() && tempFile.isFile() && tempFile.length() > 0);
     }
+
+    @Test
+    public void exportMessagesInPages() throws Exception {
+        exporter = RocketExporter.newInstance(
+                Config.builder()
+                        .host(URI.create("http://localhost:" + PORT))
+                        .pageSize(2)
+                        .build()
+        );
+
+        wireMockRule.stubFor(get(urlPathEqualTo("/api/v1/channels.history"))
+                .withQueryParam("offset", equalTo("0"))
+                .withQueryParam("count", equalTo("2"))
+                .willReturn(okJson("{\"messages\":[" + historyMessage("m4", "2019-07-24T10:00:00.004Z") + "," + historyMessage("m3", "2019-07-24T10:00:00.003Z") + "],\"success\":true}")));
+        wireMockRule.stubFor(get(urlPathEqualTo("/api/v1/channels.history"))
+                .withQueryParam("offset", equalTo("2"))
+                .withQueryParam("count", equalTo("2"))
+                .willReturn(okJson("{\"messages\":[" + historyMessage("m2", "2019-07-24T10:00:00.002Z") + "," + historyMessage("m1", "2019-07-24T10:00:00.001Z") + "],\"success\":true}")));
+
+        login();
+        File tempFile = testFolder.newFile("out-test-paging.csv");
+        ExportResult result = exporter.exportChannelMessages("roomName", "roomId", 0, 2000, tempFile, new SlackCsvFormat());
+        assertEquals(4, result.getMessageCount());
+        assertEquals("\"1563962400\",\"roomName\",\"u\",\"m1\"\n" +
+                "\"1563962400\",\"roomName\",\"u\",\"m2\"\n" +
+                "\"1563962400\",\"roomName\",\"u\",\"m3\"\n" +
+                "\"1563962400\",\"roomName\",\"u\",\"m4\"\n", Files.readString(tempFile.toPath()));
+        wireMockRule.verify(3, getRequestedFor(urlPathEqualTo("/api/v1/channels.history")));
+    }
+
+    @Test
+    public void exportOnlyNewerMessagesAndAppend() throws Exception {
+        wireMockRule.stubFor(get(urlPathEqualTo("/api/v1/channels.history"))
+                .withQueryParam("offset", equalTo("0"))
+                .withQueryParam("oldest", equalTo("2019-07-24T10:00:00.002Z"))
+                .willReturn(okJson("{\"messages\":[" + historyMessage("m4", "2019-07-24T10:00:00.004Z") + "," + historyMessage("m3", "2019-07-24T10:00:00.003Z") + "],\"success\":true}")));
+
+        login();
+        File tempFile = testFolder.newFile("out-test-incremental.csv");
+        Files.writeString(tempFile.toPath(), "previous\n");
+
+        ExportResult result = exporter.export(ExportRequest.builder()
+                .type(RocketExporter.ConversationType.CHANNEL)
+                .roomName("roomName")
+                .roomId("roomId")
+                .maxMessageCount(2000)
+                .outFile(tempFile)
+                .format(new SlackCsvFormat())
+                .oldest(Instant.parse("2019-07-24T10:00:00.002Z"))
+                .append(true)
+                .build());
+
+        assertEquals(2, result.getMessageCount());
+        assertEquals(Instant.parse("2019-07-24T10:00:00.004Z"), result.getNewestTimestamp());
+        assertEquals("previous\n" +
+                "\"1563962400\",\"roomName\",\"u\",\"m3\"\n" +
+                "\"1563962400\",\"roomName\",\"u\",\"m4\"\n", Files.readString(tempFile.toPath()));
+    }
+
+    @Test
+    public void incrementalExportReachingMaxMessageCountIsTruncated() throws Exception {
+        wireMockRule.stubFor(get(urlPathEqualTo("/api/v1/channels.history"))
+                .withQueryParam("offset", equalTo("0"))
+                .withQueryParam("oldest", equalTo("2019-07-24T10:00:00.001Z"))
+                .willReturn(okJson("{\"messages\":[" + historyMessage("m4", "2019-07-24T10:00:00.004Z") + "," + historyMessage("m3", "2019-07-24T10:00:00.003Z") + "],\"success\":true}")));
+
+        login();
+        ExportRequest.ExportRequestBuilder request = ExportRequest.builder()
+                .type(RocketExporter.ConversationType.CHANNEL)
+                .roomName("roomName")
+                .roomId("roomId")
+                .outFile(testFolder.newFile("out-test-incremental-capped.csv"))
+                .format(new SlackCsvFormat())
+                .oldest(Instant.parse("2019-07-24T10:00:00.001Z"))
+                .append(true);
+
+        // m2 is newer than the last export as well, but not exported
+        ExportResult result = exporter.export(request.maxMessageCount(2).build());
+        assertEquals(2, result.getMessageCount());
+        assertTrue(result.isTruncated());
+
+        result = exporter.export(request.maxMessageCount(2000).build());
+        assertEquals(2, result.getMessageCount());
+        assertFalse(result.isTruncated());
+    }
+
+    @Test
+    public void exportRoomInTimeWindows() throws Exception {
+        exporter = RocketExporter.newInstance(
+                Config.builder()
+                        .host(URI.create("http://localhost:" + PORT))
+                        .maxWindowsPerRoom(2)
+                        .minMessagesPerWindow(1)
+                        .build()
+        );
+
+        wireMockRule.stubFor(get(urlPathEqualTo("/api/v1/channels.history"))
+                .withQueryParam("offset", equalTo("0"))
+                .withQueryParam("latest", equalTo("2019-07-24T10:00:00.002Z"))
+                .willReturn(okJson("{\"messages\":[" + historyMessage("m1", "2019-07-24T10:00:00.001Z") + "," + historyMessage("m0", "2019-07-24T10:00:00.000Z") + "],\"success\":true}")));
+        wireMockRule.stubFor(get(urlPathEqualTo("/api/v1/channels.history"))
+                .withQueryParam("offset", equalTo("0"))
+                .withQueryParam("oldest", equalTo("2019-07-24T10:00:00.001Z"))
+                .willReturn(okJson("{\"messages\":[" + historyMessage("m3", "2019-07-24T10:00:00.004Z") + "," + historyMessage("m2", "2019-07-24T10:00:00.002Z") + "],\"success\":true}")));
+
+        login();
+        File tempFile = testFolder.newFile("out-test-windows.csv");
+        ExportResult result = exporter.export(ExportRequest.builder()
+                .type(RocketExporter.ConversationType.CHANNEL)
+                .roomName("roomName")
+                .roomId("roomId")
+                .maxMessageCount(2000)
+                .outFile(tempFile)
+                .format(new SlackCsvFormat())
+                .roomCreated(Instant.parse("2019-07-24T10:00:00.000Z"))
+                .lastMessage(Instant.parse("2019-07-24T10:00:00.004Z"))
+                .roomMessageCount(4)
+                .build());
+
+        assertEquals(4, result.getMessageCount());
+        assertEquals(Instant.parse("2019-07-24T10:00:00.004Z"), result.getNewestTimestamp());
+        assertEquals("\"1563962400\",\"roomName\",\"u\",\"m0\"\n" +
+                "\"1563962400\",\"roomName\",\"u\",\"m1\"\n" +
+                "\"1563962400\",\"roomName\",\"u\",\"m2\"\n" +
+                "\"1563962400\",\"roomName\",\"u\",\"m3\"\n", Files.readString(tempFile.toPath()));
+    }
+
+    @Test
+    public void timeWindowsKeepMaxMessageCountOfRoom() throws Exception {
+        exporter = RocketExporter.newInstance(
+                Config.builder()
+                        .host(URI.create("http://localhost:" + PORT))
+                        .maxWindowsPerRoom(2)
+                        .minMessagesPerWindow(1)
+                        .build()
+        );
+
+        wireMockRule.stubFor(get(urlPathEqualTo("/api/v1/channels.history"))
+                .withQueryParam("offset", equalTo("0"))
+                .withQueryParam("latest", equalTo("2019-07-24T10:00:00.002Z"))
+                .willReturn(okJson("{\"messages\":[" + historyMessage("m1", "2019-07-24T10:00:00.001Z") + "," + historyMessage("m0", "2019-07-24T10:00:00.000Z") + "],\"success\":true}")));
+        wireMockRule.stubFor(get(urlPathEqualTo("/api/v1/channels.history"))
+                .withQueryParam("offset", equalTo("0"))
+                .withQueryParam("oldest", equalTo("2019-07-24T10:00:00.001Z"))
+                .willReturn(okJson("{\"messages\":[" + historyMessage("m3", "2019-07-24T10:00:00.004Z") + "," + historyMessage("m2", "2019-07-24T10:00:00.002Z") + "],\"success\":true}")));
+
+        // the listing was outdated, the room has more messages than the maximum by now
+        login();
+        File tempFile = testFolder.newFile("out-test-windows-capped.csv");
+        ExportResult result = exporter.export(ExportRequest.builder()
+                .type(RocketExporter.ConversationType.CHANNEL)
+                .roomName("roomName")
+                .roomId("roomId")
+                .maxMessageCount(3)
+                .outFile(tempFile)
+                .format(new SlackCsvFormat())
+                .roomCreated(Instant.parse("2019-07-24T10:00:00.000Z"))
+                .lastMessage(Instant.parse("2019-07-24T10:00:00.004Z"))
+                .roomMessageCount(2)
+                .build());
+
+        assertEquals(3, result.getMessageCount());
+        assertTrue(result.isTruncated());
+        assertEquals("\"1563962400\",\"roomName\",\"u\",\"m1\"\n" +
+                "\"1563962400\",\"roomName\",\"u\",\"m2\"\n" +
+                "\"1563962400\",\"roomName\",\"u\",\"m3\"\n", Files.readString(tempFile.toPath()));
+    }
+
+    @Test
+    public void incrementalExportIsNotSplitIntoTimeWindows() throws Exception {
+        exporter = RocketExporter.newInstance(
+                Config.builder()
+                        .host(URI.create("http://localhost:" + PORT))
+                        .maxWindowsPerRoom(2)
+                        .minMessagesPerWindow(1)
+                        .build()
+        );
+
+        login();
+        exporter.export(ExportRequest.builder()
+                .type(RocketExporter.ConversationType.CHANNEL)
+                .roomName("roomName")
+                .roomId("roomId")
+                .maxMessageCount(2000)
+                .outFile(testFolder.newFile("out-test-windows-incremental.csv"))
+                .format(new SlackCsvFormat())
+                .oldest(Instant.parse("2019-07-24T10:00:00.003Z"))
+                .append(true)
+                .roomCreated(Instant.parse("2019-07-24T10:00:00.000Z"))
+                .lastMessage(Instant.parse("2019-07-24T10:00:00.004Z"))
+                .roomMessageCount(4)
+                .build());
+
+        wireMockRule.verify(0, getRequestedFor(urlPathEqualTo("/api/v1/channels.history")).withQueryParam("latest", matching(".+")));
+    }
+
+    @Test
+    public void resumeExportAfterFailedPage() throws Exception {
+        exporter = RocketExporter.newInstance(
+                Config.builder()
+                        .host(URI.create("http://localhost:" + PORT))
+                        .pageSize(2)
+                        .retry(Config.Retry.builder().maxRetries(0).build())
+                        .build()
+        );
+
+        wireMockRule.stubFor(get(urlPathEqualTo("/api/v1/channels.history"))
+                .withQueryParam("offset", equalTo("0"))
+                .withQueryParam("latest", absent())
+                .inScenario("outage")
+                .whenScenarioStateIs(STARTED)
+                .willReturn(okJson("{\"messages\":[" + historyMessage("m4", "2019-07-24T10:00:00.004Z") + "," + historyMessage("m3", "2019-07-24T10:00:00.003Z") + "],\"success\":true}")));
+        wireMockRule.stubFor(get(urlPathEqualTo("/api/v1/channels.history"))
+                .withQueryParam("offset", equalTo("2"))
+                .withQueryParam("latest", absent())
+                .inScenario("outage")
+                .whenScenarioStateIs(STARTED)
+                .willReturn(aResponse().withStatus(502))
+                .willSetStateTo("recovered"));
+        // three messages arrived before the export is resumed, offsets shifted by more than a page
+        wireMockRule.stubFor(get(urlPathEqualTo("/api/v1/channels.history"))
+                .withQueryParam("offset", equalTo("2"))
+                .withQueryParam("latest", absent())
+                .inScenario("outage")
+                .whenScenarioStateIs("recovered")
+                .willReturn(okJson("{\"messages\":[" + historyMessage("m5", "2019-07-24T10:00:00.005Z") + "," + historyMessage("m4", "2019-07-24T10:00:00.004Z") + "],\"success\":true}")));
+        wireMockRule.stubFor(get(urlPathEqualTo("/api/v1/channels.history"))
+                .withQueryParam("offset", equalTo("0"))
+                .withQueryParam("latest", equalTo("2019-07-24T10:00:00.004Z"))
+                .willReturn(okJson("{\"messages\":[" + historyMessage("m3", "2019-07-24T10:00:00.003Z") + "," + historyMessage("m2", "2019-07-24T10:00:00.002Z") + "],\"success\":true}")));
+
+        login();
+        File tempFile = testFolder.newFile("out-test-resume.csv");
+        ExportRequest request = resumableRequest(tempFile, new SlackCsvFormat());
+
+        try {
+            exporter.export(request);
+            fail();
+        } catch (IllegalStateException e) {
+            assertTrue(new File(testFolder.getRoot(), ".out-test-resume.csv.checkpoint").isFile());
+        }
+
+        ExportResult result = exporter.export(request);
+        assertEquals(3, result.getMessageCount());
+        assertEquals(Instant.parse("2019-07-24T10:00:00.004Z"), result.getNewestTimestamp());
+        assertEquals("\"1563962400\",\"roomName\",\"u\",\"m2\"\n" +
+                "\"1563962400\",\"roomName\",\"u\",\"m3\"\n" +
+                "\"1563962400\",\"roomName\",\"u\",\"m4\"\n", Files.readString(tempFile.toPath()));
+        wireMockRule.verify(1, getRequestedFor(urlPathEqualTo("/api/v1/channels.history")).withQueryParam("offset", equalTo("0")).withQueryParam("latest", absent()));
+        assertEquals(List.of("out-test-resume.csv"), List.of(testFolder.getRoot().list()));
+    }
+
+    @Test
+    public void repeatedResumableExportReplacesOutput() throws Exception {
+        login();
+        File tempFile = testFolder.newFile("out-test-resume-twice.csv");
+        ExportRequest request = resumableRequest(tempFile, new SlackCsvFormat());
+
+        exporter.export(request);
+        String firstExport = Files.readString(tempFile.toPath());
+        assertEquals(3, exporter.export(request).getMessageCount());
+        assertEquals(firstExport, Files.readString(tempFile.toPath()));
+    }
+
+    @Test
+    public void resumeWithDamagedSpoolStartsOver() throws Exception {
+        login();
+        File tempFile = testFolder.newFile("out-test-resume-damaged.csv");
+        SlackCsvFormat csv = new SlackCsvFormat();
+        ExportRequest failingWrite = resumableRequest(tempFile, new ExportFormat() {
+            @Override
+            public Sink open(OutputStream outputStream) {
+                throw new IllegalStateException("disk full");
+            }
+
+            @Override
+            public String fileExtension() {
+                return csv.fileExtension();
+            }
+        });
+
+        try {
+            exporter.export(failingWrite);
+            fail();
+        } catch (IllegalStateException e) {
+            // fetched completely, interrupted while writing
+        }
+        Files.writeString(new File(testFolder.getRoot(), ".out-test-resume-damaged.csv.spool").toPath(), "");
+
+        ExportResult result = exporter.export(resumableRequest(tempFile, new SlackCsvFormat()));
+        assertEquals(3, result.getMessageCount());
+        assertEquals(3, Files.readAllLines(tempFile.toPath()).size());
+        wireMockRule.verify(2, getRequestedFor(urlPathEqualTo("/api/v1/channels.history")).withQueryParam("offset", equalTo("0")));
+    }
+
+    private static ExportRequest resumableRequest(File outFile, ExportFormat format) {
+        return ExportRequest.builder()
+                .type(RocketExporter.ConversationType.CHANNEL)
+                .roomName("roomName")
+                .roomId("roomId")
+                .maxMessageCount(2000)
+                .outFile(outFile)
+                .format(format)
+                .resumable(true)
+                .build();
+    }
+
+    @Test
+    public void retryTransientServerErrors() throws Exception {
+        exporter = RocketExporter.newInstance(
+                Config.builder()
+                        .host(URI.create("http://localhost:" + PORT))
+                        .transport(Config.Transport.builder().readTimeout(Duration.ofMillis(200)).build())
+                        .retry(Config.Retry.builder().baseDelay(Duration.ofMillis(10)).build())
+                        .build()
+        );
+
+        wireMockRule.stubFor(get(urlPathEqualTo("/api/v1/channels.history"))
+                .withQueryParam("offset", equalTo("0"))
+                .inScenario("hiccup")
+                .whenScenarioStateIs(STARTED)
+                .willReturn(aResponse().withStatus(503))
+                .willSetStateTo("busy"));
+        wireMockRule.stubFor(get(urlPathEqualTo("/api/v1/channels.history"))
+                .withQueryParam("offset", equalTo("0"))
+                .inScenario("hiccup")
+                .whenScenarioStateIs("busy")
+                .willReturn(aResponse().withFixedDelay(500).withStatus(200))
+                .willSetStateTo("recovered"));
+        wireMockRule.stubFor(get(urlPathEqualTo("/api/v1/channels.history"))
+                .withQueryParam("offset", equalTo("0"))
+                .inScenario("hiccup")
+                .whenScenarioStateIs("recovered")
+                .willReturn(ok()
+                        .withHeader("Content-Type", "application/json")
+                        .withBodyFile("mock/example_channel_history.json")));
+
+        // 503, then a read timeout, then success
+        login();
+        File tempFile = testFolder.newFile("out-test-retry.csv");
+        ExportResult result = exporter.exportChannelMessages("roomName", "roomId", 0, 2000, tempFile, new SlackCsvFormat());
+        assertTrue(result.getMessageCount() > 0);
+        wireMockRule.verify(3, getRequestedFor(urlPathEqualTo("/api/v1/channels.history")).withQueryParam("offset", equalTo("0")));
+    }
+
+    @Test
+    public void retryBudgetIsReleasedAfterEachExport() throws Exception {
+        exporter = RocketExporter.newInstance(
+                Config.builder()
+                        .host(URI.create("http://localhost:" + PORT))
+                        .retry(Config.Retry.builder().baseDelay(Duration.ofMillis(1)).roomRetryBudget(1).build())
+                        .build()
+        );
+        String[] states = {STARTED, "failed once", "exported", "failed twice"};
+        for (int i = 0; i < states.length; i++) {
+            wireMockRule.stubFor(get(urlPathEqualTo("/api/v1/channels.history"))
+                    .withQueryParam("offset", equalTo("0"))
+                    .inScenario("flaky")
+                    .whenScenarioStateIs(states[i])
+                    .willReturn(i % 2 == 0 ? aResponse().withStatus(503) : ok()
+                            .withHeader("Content-Type", "application/json")
+                            .withBodyFile("mock/example_channel_history.json"))
+                    .willSetStateTo(i + 1 < states.length ? states[i + 1] : states[i]));
+        }
+
+        // every export of the room needs one retry
+        login();
+        for (int i = 0; i < 2; i++) {
+            File tempFile = testFolder.newFile("out-test-budget-" + i + ".csv");
+            assertEquals(3, exporter.exportChannelMessages("roomName", "roomId", 0, 2000, tempFile, new SlackCsvFormat()).getMessageCount());
+        }
+        wireMockRule.verify(4, getRequestedFor(urlPathEqualTo("/api/v1/channels.history")).withQueryParam("offset", equalTo("0")));
+    }
+
+    @Test
+    public void asyncListingRetriesTransientServerErrors() throws Exception {
+        exporter = RocketExporter.newInstance(
+                Config.builder()
+                        .host(URI.create("http://localhost:" + PORT))
+                        .retry(Config.Retry.builder().baseDelay(Duration.ofMillis(10)).build())
+                        .build()
+        );
+        wireMockRule.stubFor(get(urlPathEqualTo("/api/v1/channels.list"))
+                .inScenario("hiccup")
+                .whenScenarioStateIs(STARTED)
+                .willReturn(aResponse().withStatus(502))
+                .willSetStateTo("recovered"));
+
+        login();
+        assertEquals(2, exporter.async().listChannels().get(10, TimeUnit.SECONDS).size());
+        wireMockRule.verify(2, getRequestedFor(urlPathEqualTo("/api/v1/channels.list")));
+    }
+
+    @Test
+    public void giveUpAfterRetriesAreExhausted() throws Exception {
+        exporter = RocketExporter.newInstance(
+                Config.builder()
+                        .host(URI.create("http://localhost:" + PORT))
+                        .retry(Config.Retry.builder().baseDelay(Duration.ofMillis(1)).maxRetries(2).build())
+                        .build()
+        );
+        wireMockRule.stubFor(get(urlPathEqualTo("/api/v1/channels.history"))
+                .withQueryParam("offset", equalTo("0"))
+                .willReturn(aResponse().withStatus(500)));
+
+        login();
+        try {
+            exporter.exportChannelMessages("roomName", "roomId", 0, 2000, testFolder.newFile("out-test-retry.csv"), new SlackCsvFormat());
+            fail();
+        } catch (IllegalStateException e) {
+            assertTrue(e.getMessage().contains("500"));
+        }
+        wireMockRule.verify(3, getRequestedFor(urlPathEqualTo("/api/v1/channels.history")));
+    }
+
+    @Test
+    public void retryAfterRateLimitWasHit() throws Exception {
+        wireMockRule.stubFor(get(urlPathEqualTo("/api/v1/channels.list"))
+                .inScenario("rate-limit")
+                .whenScenarioStateIs(STARTED)
+                .willReturn(aResponse().withStatus(429)
+                        .withHeader("X-RateLimit-Limit", "10")
+                        .withHeader("X-RateLimit-Remaining", "0")
+                        .withHeader("X-RateLimit-Reset", String.valueOf(System.currentTimeMillis() + 200)))
+                .willSetStateTo("reset"));
+
+        login();
+        List<RocketChatChannel.Channel> channels = exporter.listChannels();
+        assertEquals(2, channels.size());
+        wireMockRule.verify(2, getRequestedFor(urlPathEqualTo("/api/v1/channels.list")));
+    }
+
+    @Test
+    public void rateLimitWaitDoesNotShrinkPageSize() throws Exception {
+        exporter = RocketExporter.newInstance(
+                Config.builder()
+                        .host(URI.create("http://localhost:" + PORT))
+                        .pageSize(2)
+                        .pageSizing(Config.PageSizing.builder().adaptive(true).minPageSize(1).latencyTarget(Duration.ofMillis(300)).build())
+                        .build()
+        );
+        // the first page uses up the budget, the second one is sent after the reset
+        wireMockRule.stubFor(get(urlPathEqualTo("/api/v1/channels.history"))
+                .withQueryParam("offset", equalTo("0"))
+                .willReturn(okJson("{\"messages\":[" + historyMessage("m4", "2019-07-24T10:00:00.004Z") + "," + historyMessage("m3", "2019-07-24T10:00:00.003Z") + "],\"success\":true}")
+                        .withHeader("X-RateLimit-Limit", "3")
+                        .withHeader("X-RateLimit-Remaining", "1")
+                        .withHeader("X-RateLimit-Reset", "1")));
+        wireMockRule.stubFor(get(urlPathEqualTo("/api/v1/channels.history"))
+                .withQueryParam("offset", equalTo("2"))
+                .willReturn(okJson("{\"messages\":[" + historyMessage("m2", "2019-07-24T10:00:00.002Z") + "," + historyMessage("m1", "2019-07-24T10:00:00.001Z") + "],\"success\":true}")));
+        wireMockRule.stubFor(get(urlPathEqualTo("/api/v1/channels.history"))
+                .withQueryParam("offset", equalTo("4"))
+                .willReturn(okJson("{\"messages\":[],\"success\":true}")));
+
+        login();
+        long start = System.currentTimeMillis();
+        ExportResult result = exporter.exportChannelMessages("roomName", "roomId", 0, 2000, testFolder.newFile("out-test-paced.csv"), new SlackCsvFormat());
+
+        assertEquals(4, result.getMessageCount());
+        assertTrue(System.currentTimeMillis() - start >= 500);
+        wireMockRule.verify(getRequestedFor(urlPathEqualTo("/api/v1/channels.history"))
+                .withQueryParam("offset", equalTo("4"))
+                .withQueryParam("count", notMatching("[01]")));
+    }
+
+    @Test
+    public void asyncListConversations() throws Exception {
+        login();
+        AsyncRocketExporter async = exporter.async();
+        assertEquals(3, async.listGroups().get(10, TimeUnit.SECONDS).size());
+        assertEquals(2, async.listChannels().get(10, TimeUnit.SECONDS).size());
+        assertEquals(3, async.listDirectMessageChannels().get(10, TimeUnit.SECONDS).size());
+    }
+
+    @Test
+    public void asyncMessagesWithBackpressure() throws Exception {
+        exporter = RocketExporter.newInstance(
+                Config.builder()
+                        .host(URI.create("http://localhost:" + PORT))
+                        .pageSize(2)
+                        .build()
+        );
+        wireMockRule.stubFor(get(urlPathEqualTo("/api/v1/channels.history"))
+                .withQueryParam("offset", equalTo("0"))
+                .willReturn(okJson("{\"messages\":[" + historyMessage("m4", "2019-07-24T10:00:00.004Z") + "," + historyMessage("m3", "2019-07-24T10:00:00.003Z") + "],\"success\":true}")));
+        wireMockRule.stubFor(get(urlPathEqualTo("/api/v1/channels.history"))
+                .withQueryParam("offset", equalTo("2"))
+                .willReturn(okJson("{\"messages\":[" + historyMessage("m2", "2019-07-24T10:00:00.002Z") + "],\"success\":true}")));
+        login();
+
+        CompletableFuture<List<String>> done = new CompletableFuture<>();
+        exporter.async().messages(RocketExporter.ConversationType.CHANNEL, "roomName", "roomId", 0, 100, null)
+                .subscribe(new Flow.Subscriber<>() {
+                    private final List<String> received = new ArrayList<>();
+                    private Flow.Subscription subscription;
+
+                    @Override
+                    public void onSubscribe(Flow.Subscription subscription) {
+                        this.subscription = subscription;
+                        subscription.request(1);
+                    }
+
+                    @Override
+                    public void onNext(Message item) {
+                        received.add(item.getMessage());
+                        subscription.request(1);
+                    }
+
+                    @Override
+                    public void onError(Throwable throwable) {
+                        done.completeExceptionally(throwable);
+                    }
+
+                    @Override
+                    public void onComplete() {
+                        done.complete(received);
+                    }
+                });
+
+        assertEquals(List.of("m4", "m3", "m2"), done.get(10, TimeUnit.SECONDS));
+        wireMockRule.verify(3, getRequestedFor(urlPathEqualTo("/api/v1/channels.history")));
+    }
+
+    private static String historyMessage(String msg, String ts) {
+        return "{\"_id\":\"" + msg + "\",\"rid\":\"roomId\",\"msg\":\"" + msg + "\",\"ts\":\"" + ts + "\",\"u\":{\"_id\":\"u\",\"username\":\"u\",\"name\":\"u\"}}";
+    }
 }
@@ -0,0 +1,117 @@
+package at.favre.tools.rocketexporter;
+
+import at.favre.tools.rocketexporter.dto.LoginDto;
+import at.favre.tools.rocketexporter.dto.RocketChatGroups;
+import com.github.tomakehurst.wiremock.junit.WireMockRule;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.net.URI;
+import java.time.Duration;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static com.github.tomakehurst.wiremock.client.WireMock.*;
+import static com.github.tomakehurst.wiremock.core.WireMockConfiguration.options;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+public class RoomMetadataCacheTest {
+    private static final int PORT = 3001;
+
+    @Rule
+    public TemporaryFolder testFolder = new TemporaryFolder();
+
+    @Rule
+    public WireMockRule wireMockRule = new WireMockRule(options().port(PORT));
+
+    private RocketExporter exporter;
+    private File file;
+
+    @Before
+    public void setup() throws Exception {
+        wireMockRule.stubFor(post(urlPathEqualTo("/api/v1/login"))
+                .willReturn(ok()
+                        .withHeader("Content-Type", "application/json")
+                        .withBodyFile("mock/example_login.json")));
+        wireMockRule.stubFor(get(urlPathEqualTo("/api/v1/groups.list"))
+                .willReturn(ok()
+                        .withHeader("Content-Type", "application/json")
+                        .withBodyFile("mock/example_groups.json")));
+
+        exporter = RocketExporter.newInstance(Config.builder().host(URI.create("http://localhost:" + PORT)).build());
+        exporter.login(new LoginDto("user", "password"));
+        file = new File(testFolder.getRoot(), "rooms.json");
+    }
+
+    @Test
+    public void servedFromDiskWithinTtl() throws Exception {
+        RoomMetadataCache cache = RoomMetadataCache.load(file, Duration.ofHours(1));
+        assertEquals(3, cache.groups(exporter).size());
+        cache.save();
+
+        List<RocketChatGroups.Group> groups = RoomMetadataCache.load(file, Duration.ofHours(1)).groups(exporter);
+        assertEquals(3, groups.size());
+        assertEquals("2019-01-23T15:30:42.789Z", groups.get(0).getLm());
+        wireMockRule.verify(1, getRequestedFor(urlPathEqualTo("/api/v1/groups.list")));
+        wireMockRule.verify(0, getRequestedFor(urlPathEqualTo("/api/v1/rooms.get")));
+    }
+
+    @Test
+    public void revalidateWithChangesAfterTtl() throws Exception {
+        wireMockRule.stubFor(get(urlPathEqualTo("/api/v1/rooms.get"))
+                .withQueryParam("updatedSince", matching(".+"))
+                .willReturn(okJson("{\"update\":[" +
+                        "{\"_id\":\"aspdijaslkhafl\",\"t\":\"p\",\"name\":\"group-a\",\"msgs\":9,\"lm\":\"2019-02-01T00:00:00.000Z\"}," +
+                        "{\"_id\":\"new\",\"t\":\"p\",\"name\":\"group-new\",\"msgs\":1}," +
+                        "{\"_id\":\"chan\",\"t\":\"c\",\"name\":\"ignored\",\"msgs\":1}]," +
+                        "\"remove\":[{\"_id\":\"opiaflakdjhfladkjf\"}],\"success\":true}")));
+
+        RoomMetadataCache cache = RoomMetadataCache.load(file, Duration.ZERO);
+        assertEquals(3, cache.groups(exporter).size());
+        List<RocketChatGroups.Group> groups = cache.groups(exporter);
+
+        assertEquals(List.of("group-a", "group-new"), groups.stream().map(RocketChatGroups.Group::getName).collect(Collectors.toList()));
+        assertEquals("9", groups.get(0).getMsgs());
+        wireMockRule.verify(1, getRequestedFor(urlPathEqualTo("/api/v1/groups.list")));
+        wireMockRule.verify(1, getRequestedFor(urlPathEqualTo("/api/v1/rooms.get")));
+    }
+
+    @Test
+    public void channelsAreListedAgainAfterTtl() throws Exception {
+        wireMockRule.stubFor(get(urlPathEqualTo("/api/v1/channels.list"))
+                .willReturn(ok()
+                        .withHeader("Content-Type", "application/json")
+                        .withBodyFile("mock/example_channels.json")));
+        wireMockRule.stubFor(get(urlPathEqualTo("/api/v1/rooms.get"))
+                .willReturn(okJson("{\"update\":[],\"remove\":[],\"success\":true}")));
+
+        // rooms.get only reports subscribed rooms, it would miss new public channels
+        RoomMetadataCache cache = RoomMetadataCache.load(file, Duration.ZERO);
+        cache.channels(exporter);
+        assertEquals(2, cache.channels(exporter).size());
+        wireMockRule.verify(2, getRequestedFor(urlPathEqualTo("/api/v1/channels.list")));
+        wireMockRule.verify(0, getRequestedFor(urlPathEqualTo("/api/v1/rooms.get")));
+    }
+
+    @Test
+    public void fullListIfRevalidationIsNotSupported() throws Exception {
+        wireMockRule.stubFor(get(urlPathEqualTo("/api/v1/rooms.get")).willReturn(notFound()));
+
+        RoomMetadataCache cache = RoomMetadataCache.load(file, Duration.ZERO);
+        cache.groups(exporter);
+        assertEquals(3, cache.groups(exporter).size());
+        wireMockRule.verify(2, getRequestedFor(urlPathEqualTo("/api/v1/groups.list")));
+    }
+
+    @Test
+    public void keyedByHostAndUser() {
+        URI host = URI.create("https://chat.example.com");
+        assertEquals(RoomMetadataCache.defaultFile(host, "alice"), RoomMetadataCache.defaultFile(host, "alice"));
+        assertNotEquals(RoomMetadataCache.defaultFile(host, "alice"), RoomMetadataCache.defaultFile(host, "bob"));
+        assertNotEquals(RoomMetadataCache.defaultFile(host, "alice"), RoomMetadataCache.defaultFile(URI.create("https://other.example.com"), "alice"));
+    }
+}
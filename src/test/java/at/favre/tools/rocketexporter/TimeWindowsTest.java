@@ -0,0 +1,34 @@
+package at.favre.tools.rocketexporter;
+
+import org.junit.Test;
+
+import java.time.Instant;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TimeWindowsTest {
+    private static final Instant FROM = Instant.parse("2019-01-01T00:00:00Z");
+    private static final Instant TO = Instant.parse("2019-01-05T00:00:00Z");
+
+    @Test
+    public void splitIntoEqualDurations() {
+        assertEquals(List.of(Instant.parse("2019-01-02T00:00:00Z"), Instant.parse("2019-01-03T00:00:00Z"), Instant.parse("2019-01-04T00:00:00Z")),
+                TimeWindows.boundaries(FROM, TO, 1_000_000, 4, 1000));
+    }
+
+    @Test
+    public void windowsHoldAtLeastMinMessages() {
+        assertEquals(List.of(Instant.parse("2019-01-03T00:00:00Z")), TimeWindows.boundaries(FROM, TO, 2500, 8, 1000));
+        assertTrue(TimeWindows.boundaries(FROM, TO, 1999, 8, 1000).isEmpty());
+    }
+
+    @Test
+    public void unknownTimelineIsNotSplit() {
+        assertTrue(TimeWindows.boundaries(null, TO, 1_000_000, 4, 1000).isEmpty());
+        assertTrue(TimeWindows.boundaries(FROM, null, 1_000_000, 4, 1000).isEmpty());
+        assertTrue(TimeWindows.boundaries(TO, FROM, 1_000_000, 4, 1000).isEmpty());
+        assertTrue(TimeWindows.boundaries(FROM, TO, 1_000_000, 1, 1000).isEmpty());
+    }
+}
@@ -0,0 +1,61 @@
+package at.favre.tools.rocketexporter;
+
+import org.junit.Test;
+
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+public class TimestampsTest {
+
+    @Test
+    public void parseRocketChatFormat() {
+        assertParse("2019-07-24T10:00:16.455Z");
+        assertParse("1970-01-01T00:00:00.000Z");
+        assertParse("1969-12-31T23:59:59.999Z");
+        assertParse("2000-02-29T12:00:00.001Z");
+        assertParse("2100-03-01T00:00:00.000Z");
+        assertParse("0001-01-01T00:00:00.000Z");
+        assertParse("0000-01-01T00:00:00.000Z");
+        assertParse("0000-02-29T23:59:59.999Z");
+        assertParse("0000-03-01T00:00:00.000Z");
+    }
+
+    @Test
+    public void parseRandom() {
+        Random random = new Random(1);
+        for (int i = 0; i < 100_000; i++) {
+            // years 1900 to ~2100
+            Instant instant = Instant.ofEpochMilli(-2_208_988_800_000L + (long) (random.nextDouble() * 6_311_390_400_000L));
+            assertEquals(instant.toEpochMilli(), Timestamps.parseEpochMillis(instant.toString()));
+        }
+    }
+
+    @Test
+    public void fallbackForOtherShapes() {
+        assertParse("2019-07-24T10:00:16Z");
+        assertParse("2019-07-24T10:00:16.455123Z");
+        assertParse("2019-07-24T10:00:16.4Z");
+    }
+
+    @Test(expected = DateTimeParseException.class)
+    public void invalidDay() {
+        Timestamps.parseEpochMillis("2019-02-29T10:00:16.455Z");
+    }
+
+    @Test(expected = DateTimeParseException.class)
+    public void invalidDigit() {
+        Timestamps.parseEpochMillis("2019-07-2xT10:00:16.455Z");
+    }
+
+    @Test(expected = DateTimeParseException.class)
+    public void invalidHour() {
+        Timestamps.parseEpochMillis("2019-07-24T24:00:16.455Z");
+    }
+
+    private static void assertParse(String ts) {
+        assertEquals(ts, Instant.parse(ts).toEpochMilli(), Timestamps.parseEpochMillis(ts));
+    }
+}
@@ -0,0 +1,57 @@
+package at.favre.tools.rocketexporter;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+
+import static org.junit.Assert.assertEquals;
+
+public class WorkEstimatorTest {
+    @Rule
+    public TemporaryFolder testFolder = new TemporaryFolder();
+
+    @Test
+    public void estimateWithDefaultSize() {
+        WorkEstimator estimator = WorkEstimator.inMemory();
+        assertEquals(1000 * WorkEstimator.DEFAULT_BYTES_PER_MESSAGE, estimator.estimate(request("a", 1000, 25000)), 0.1);
+        // only the newest messages up to the limit are exported
+        assertEquals(10 * WorkEstimator.DEFAULT_BYTES_PER_MESSAGE, estimator.estimate(request("a", 1000, 10)), 0.1);
+        assertEquals(1, estimator.estimate(request("a", 0, 25000)));
+    }
+
+    @Test
+    public void learnPerRoomAndAverage() {
+        WorkEstimator estimator = WorkEstimator.inMemory();
+        estimator.record("a", 100, 10_000);
+        estimator.record("b", 100, 30_000);
+
+        assertEquals(100, estimator.bytesPerMessage("a"), 0.1);
+        assertEquals(300, estimator.bytesPerMessage("b"), 0.1);
+        assertEquals(200, estimator.bytesPerMessage("c"), 0.1);
+        assertEquals(30_000, estimator.estimate(request("b", 100, 25000)));
+    }
+
+    @Test
+    public void persistAndLoad() throws Exception {
+        File file = new File(testFolder.getRoot(), "stats.properties");
+        WorkEstimator estimator = WorkEstimator.load(file);
+        estimator.record("a", 100, 10_000);
+        estimator.record("b", 100, 50_000);
+        estimator.save();
+
+        WorkEstimator loaded = WorkEstimator.load(file);
+        assertEquals(100, loaded.bytesPerMessage("a"), 0.1);
+        assertEquals(500, loaded.bytesPerMessage("b"), 0.1);
+        assertEquals(300, loaded.bytesPerMessage("unknown"), 0.1);
+    }
+
+    private static ExportRequest request(String roomId, long roomMessageCount, int maxMessageCount) {
+        return ExportRequest.builder()
+                .roomId(roomId)
+                .roomMessageCount(roomMessageCount)
+                .maxMessageCount(maxMessageCount)
+                .build();
+    }
+}
@@ -0,0 +1,37 @@
+package at.favre.tools.rocketexporter.cli;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class RoomFilterTest {
+
+    @Test
+    public void allIfNoPatterns() {
+        RoomFilter filter = new RoomFilter(List.of(), List.of());
+        assertTrue(filter.matches("general"));
+        assertFalse(filter.matches(null));
+    }
+
+    @Test
+    public void includeAndExclude() {
+        RoomFilter filter = new RoomFilter(List.of("team-*", "ops"), List.of("*-archive", "team-?"));
+        assertTrue(filter.matches("team-backend"));
+        assertTrue(filter.matches("TEAM-Backend"));
+        assertTrue(filter.matches("ops"));
+        assertFalse(filter.matches("ops2"));
+        assertFalse(filter.matches("team-backend-archive"));
+        assertFalse(filter.matches("team-a"));
+        assertFalse(filter.matches("random"));
+    }
+
+    @Test
+    public void regexCharactersAreLiterals() {
+        RoomFilter filter = new RoomFilter(List.of("a.b(c)*"), List.of());
+        assertTrue(filter.matches("a.b(c)-d"));
+        assertFalse(filter.matches("axb(c)"));
+    }
+}
@@ -0,0 +1,64 @@
+package at.favre.tools.rocketexporter.converter;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class AsyncFileOutputStreamTest {
+    @Rule
+    public TemporaryFolder testFolder = new TemporaryFolder();
+
+    @Test
+    public void writeMoreThanAllBuffers() throws Exception {
+        byte[] data = new byte[AsyncFileOutputStream.BUFFER_SIZE * 5 + 17];
+        new Random(1).nextBytes(data);
+        File file = testFolder.newFile();
+
+        try (OutputStream out = new AsyncFileOutputStream(file, false)) {
+            out.write(data[0]);
+            out.write(data, 1, 1000);
+            out.flush();
+            out.write(data, 1001, data.length - 1001);
+        }
+
+        assertArrayEquals(data, Files.readAllBytes(file.toPath()));
+    }
+
+    @Test
+    public void appendOrTruncate() throws Exception {
+        File file = testFolder.newFile();
+        Files.writeString(file.toPath(), "previous\n");
+
+        try (OutputStream out = new AsyncFileOutputStream(file, true)) {
+            out.write("appended\n".getBytes());
+        }
+        assertEquals("previous\nappended\n", Files.readString(file.toPath()));
+
+        try (OutputStream out = new AsyncFileOutputStream(file, false)) {
+            out.write("new\n".getBytes());
+        }
+        assertEquals("new\n", Files.readString(file.toPath()));
+    }
+
+    @Test(expected = IOException.class)
+    public void writeAfterClose() throws Exception {
+        OutputStream out = new AsyncFileOutputStream(testFolder.newFile(), false);
+        out.close();
+        out.close();
+        out.write(1);
+    }
+
+    @Test(expected = IOException.class)
+    public void openFailsForDirectory() throws Exception {
+        new AsyncFileOutputStream(testFolder.newFolder(), false).close();
+    }
+}
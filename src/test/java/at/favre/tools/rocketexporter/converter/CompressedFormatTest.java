@@ -0,0 +1,95 @@
+package at.favre.tools.rocketexporter.converter;
+
+import at.favre.tools.rocketexporter.model.Message;
+import net.jpountz.lz4.LZ4FrameInputStream;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+import static java.time.Instant.EPOCH;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class CompressedFormatTest {
+    private static final List<Message> MESSAGES = messages();
+
+    @Test
+    public void gzip() throws Exception {
+        byte[] compressed = export(new CompressedFormat(new SlackCsvFormat(), Compression.GZIP, 9, 1024));
+        assertEquals(uncompressed(), decompress(new GZIPInputStream(new ByteArrayInputStream(compressed))));
+        assertTrue(compressed.length < uncompressed().length() / 4);
+    }
+
+    @Test
+    public void lz4() throws Exception {
+        byte[] compressed = export(new CompressedFormat(new SlackCsvFormat(), Compression.LZ4));
+        assertEquals(uncompressed(), decompress(new LZ4FrameInputStream(new ByteArrayInputStream(compressed))));
+        assertTrue(compressed.length < uncompressed().length() / 4);
+    }
+
+    @Test
+    public void lz4HighCompression() throws Exception {
+        byte[] compressed = export(new CompressedFormat(new SlackCsvFormat(), Compression.LZ4, 9, 300 * 1024));
+        assertEquals(uncompressed(), decompress(new LZ4FrameInputStream(new ByteArrayInputStream(compressed))));
+    }
+
+    @Test
+    public void appendedStreamsAreValid() throws Exception {
+        ExportFormat format = new CompressedFormat(new SlackCsvFormat(), Compression.GZIP);
+        ByteArrayOutputStream bout = new ByteArrayOutputStream();
+        bout.write(export(format));
+        bout.write(export(format));
+        assertEquals(uncompressed() + uncompressed(), decompress(new GZIPInputStream(new ByteArrayInputStream(bout.toByteArray()))));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void writeErrorOfBackgroundThreadIsPropagated() {
+        new CompressedFormat(new SlackCsvFormat(), Compression.GZIP).export(MESSAGES, new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                throw new IOException("disk full");
+            }
+        });
+    }
+
+    @Test
+    public void fileExtension() {
+        assertEquals("csv.gz", new CompressedFormat(new SlackCsvFormat(), Compression.GZIP).fileExtension());
+        assertEquals("csv.lz4", new CompressedFormat(new SlackCsvFormat(), Compression.LZ4).fileExtension());
+        assertEquals("csv", new CompressedFormat(new SlackCsvFormat(), Compression.NONE).fileExtension());
+    }
+
+    private static byte[] export(ExportFormat format) {
+        ByteArrayOutputStream bout = new ByteArrayOutputStream();
+        format.export(MESSAGES, bout);
+        return bout.toByteArray();
+    }
+
+    private static String uncompressed() {
+        ByteArrayOutputStream bout = new ByteArrayOutputStream();
+        new SlackCsvFormat().export(MESSAGES, bout);
+        return bout.toString(StandardCharsets.UTF_8);
+    }
+
+    private static String decompress(InputStream in) throws IOException {
+        try (in) {
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+
+    private static List<Message> messages() {
+        List<Message> messages = new ArrayList<>();
+        for (int i = 0; i < 20_000; i++) {
+            messages.add(new Message("message number " + i + " with some text", "user" + (i % 7), "channel", EPOCH.plusSeconds(i)));
+        }
+        return messages;
+    }
+}
@@ -4,6 +4,7 @@ import at.favre.tools.rocketexporter.model.Message;
 import org.junit.Test;
 
 import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
 import java.util.List;
 
 import static java.time.Instant.EPOCH;
@@ -30,4 +31,33 @@ public class SlackCsvFormatTest {
                 "\"1\",\"c3\",\"u2\",\"m2\"\n" +
                 "\"0\",\"c3\",\"u3\",\"\"\n", out);
     }
+
+    @Test
+    public void exportWithSink() throws Exception {
+        ByteArrayOutputStream bout = new ByteArrayOutputStream();
+        try (ExportFormat.Sink sink = exportFormat.open(bout)) {
+            sink.write(new Message("m1", "u1", "c1", EPOCH));
+            sink.write(List.of(
+                    new Message("m2", "u2", "c1", EPOCH.plusSeconds(1)),
+                    new Message("m3", "u1", "c1", EPOCH.plusSeconds(2))));
+        }
+
+        assertEquals("\"0\",\"c1\",\"u1\",\"m1\"\n" +
+                "\"1\",\"c1\",\"u2\",\"m2\"\n" +
+                "\"2\",\"c1\",\"u1\",\"m3\"\n", bout.toString());
+    }
+
+    @Test
+    public void exportEscapesAllFields() {
+        ByteArrayOutputStream bout = new ByteArrayOutputStream();
+        exportFormat.export(
+                List.of(
+                        new Message("say \"hi\", then\nleave \\o/", "last, \"first\"", "c\"1", EPOCH.minusSeconds(1234567)),
+                        new Message("\"", null, null, EPOCH.plusSeconds(1569000000))
+                ),
+                bout);
+
+        assertEquals("\"-1234567\",\"c\\\"1\",\"last, \\\"first\\\"\",\"say \\\"hi\\\", then\nleave \\\\o/\"\n" +
+                "\"1569000000\",\"\",\"\",\"\\\"\"\n", bout.toString(StandardCharsets.UTF_8));
+    }
 }
@@ -0,0 +1,97 @@
+package at.favre.tools.rocketexporter.converter;
+
+import at.favre.tools.rocketexporter.model.Message;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.time.Instant;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import static org.junit.Assert.assertEquals;
+
+public class SlackZipFormatTest {
+    @Rule
+    public TemporaryFolder testFolder = new TemporaryFolder();
+
+    @Test
+    public void exportGroupedByDay() throws Exception {
+        ByteArrayOutputStream bout = new ByteArrayOutputStream();
+        new SlackZipFormat().export(
+                List.of(
+                        new Message("m1", "u1", "c1", Instant.parse("2019-07-24T10:00:00.000Z")),
+                        new Message("m2", "u2", "c1", Instant.parse("2019-07-24T23:59:59.123Z")),
+                        new Message("m3", "u1", "c1", Instant.parse("2019-07-25T00:00:00.000Z"))
+                ),
+                bout);
+
+        Map<String, String> entries = unzip(bout.toByteArray());
+        assertEquals(List.of("c1/2019-07-24.json", "c1/2019-07-25.json", "channels.json", "users.json"), List.copyOf(entries.keySet()));
+
+        JsonArray firstDay = new JsonParser().parse(entries.get("c1/2019-07-24.json")).getAsJsonArray();
+        assertEquals(2, firstDay.size());
+        JsonObject message = firstDay.get(1).getAsJsonObject();
+        assertEquals("message", message.get("type").getAsString());
+        assertEquals("u2", message.get("user").getAsString());
+        assertEquals("m2", message.get("text").getAsString());
+        assertEquals("1564012799.123000", message.get("ts").getAsString());
+
+        JsonObject channel = new JsonParser().parse(entries.get("channels.json")).getAsJsonArray().get(0).getAsJsonObject();
+        assertEquals("c1", channel.get("name").getAsString());
+        assertEquals(2, channel.get("members").getAsJsonArray().size());
+        assertEquals(2, new JsonParser().parse(entries.get("users.json")).getAsJsonArray().size());
+    }
+
+    @Test
+    public void workspaceWithMultipleConversations() throws Exception {
+        ByteArrayOutputStream bout = new ByteArrayOutputStream();
+        try (SlackZipFormat.Workspace workspace = SlackZipFormat.workspace(bout)) {
+            workspace.export(List.of(new Message("m1", "u1", "c1", Instant.EPOCH)), new ByteArrayOutputStream());
+            workspace.export(List.of(new Message("m2", "u2", "c2", Instant.EPOCH)), new ByteArrayOutputStream());
+            workspace.export(List.of(new Message("m3", "u3", "c2", Instant.EPOCH)), new ByteArrayOutputStream());
+        }
+
+        Map<String, String> entries = unzip(bout.toByteArray());
+        assertEquals(List.of("c1/1970-01-01.json", "c2/1970-01-01.json", "c2-2/1970-01-01.json", "channels.json", "users.json"),
+                List.copyOf(entries.keySet()));
+        assertEquals(3, new JsonParser().parse(entries.get("channels.json")).getAsJsonArray().size());
+        assertEquals(3, new JsonParser().parse(entries.get("users.json")).getAsJsonArray().size());
+    }
+
+    @Test
+    public void workspaceFile() throws Exception {
+        File file = testFolder.newFile("workspace.zip");
+        try (SlackZipFormat.Workspace workspace = SlackZipFormat.workspace(file)) {
+            try (ExportFormat.Sink sink = workspace.open(file, false)) {
+                sink.write(new Message("m1", "u1", "c1", Instant.EPOCH));
+            }
+        }
+
+        assertEquals(List.of("c1/1970-01-01.json", "channels.json", "users.json"),
+                List.copyOf(unzip(Files.readAllBytes(file.toPath())).keySet()));
+    }
+
+    private static Map<String, String> unzip(byte[] zip) throws IOException {
+        Map<String, String> entries = new LinkedHashMap<>();
+        try (ZipInputStream in = new ZipInputStream(new ByteArrayInputStream(zip))) {
+            ZipEntry entry;
+            while ((entry = in.getNextEntry()) != null) {
+                entries.put(entry.getName(), new String(in.readAllBytes(), StandardCharsets.UTF_8));
+            }
+        }
+        return entries;
+    }
+}